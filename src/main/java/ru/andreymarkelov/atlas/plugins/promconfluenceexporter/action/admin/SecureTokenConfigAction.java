@@ -1,30 +1,58 @@
 package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.action.admin;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import com.atlassian.confluence.core.ConfluenceActionSupport;
+import org.apache.commons.lang3.StringUtils;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.ExpositionCache;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.MetricCollector;
 import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.ScheduledMetricEvaluator;
 import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.ScrapingSettingsManager;
 import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.SecureTokenManager;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.PathPrefixMatcher;
 
 public class SecureTokenConfigAction extends ConfluenceActionSupport {
     private SecureTokenManager secureTokenManager;
     private ScrapingSettingsManager scrapingSettingsManager;
     private ScheduledMetricEvaluator scheduledMetricEvaluator;
+    private ExpositionCache expositionCache;
+    private MetricCollector metricCollector;
 
     private final static String ERROR_INVALID_DELAY = "ru.andreymarkelov.atlas.plugins.promconfluenceexporter.admin.error.invalid.delay";
+    private final static String ERROR_INVALID_CACHE_INTERVAL = "ru.andreymarkelov.atlas.plugins.promconfluenceexporter.admin.error.invalid.cacheinterval";
+    private final static String ERROR_INVALID_CACHE_MAX_STALENESS = "ru.andreymarkelov.atlas.plugins.promconfluenceexporter.admin.error.invalid.cachemaxstaleness";
+    private final static String ERROR_INVALID_MAX_SERIES_PER_FAMILY = "ru.andreymarkelov.atlas.plugins.promconfluenceexporter.admin.error.invalid.maxseriesperfamily";
+    private final static String ERROR_INVALID_SERIES_TTL = "ru.andreymarkelov.atlas.plugins.promconfluenceexporter.admin.error.invalid.seriesttl";
+    private final static String ERROR_INVALID_REQUEST_SAMPLING_FACTOR = "ru.andreymarkelov.atlas.plugins.promconfluenceexporter.admin.error.invalid.requestsamplingfactor";
+    private final static String ERROR_INVALID_DURATION_PATHS = "ru.andreymarkelov.atlas.plugins.promconfluenceexporter.admin.error.invalid.durationpaths";
     private final static String NOT_YET_EXECUTED = "ru.andreymarkelov.atlas.plugins.promconfluenceexporter.admin.settings.notyetexecuted";
 
     private boolean saved = false;
     private String token;
 
     private int delay;
+    private int cacheInterval;
+    private int cacheMaxStaleness;
+    private int maxSeriesPerFamily;
+    private int seriesTtl;
+    private int requestSamplingFactor;
+    private boolean clusterAggregation;
+    private String durationPaths;
     private String lastExecutionTimestamp;
 
     @Override
     public String doDefault() {
         this.token = secureTokenManager.getToken();
         this.delay = scrapingSettingsManager.getDelay();
+        this.cacheInterval = scrapingSettingsManager.getCacheInterval();
+        this.cacheMaxStaleness = scrapingSettingsManager.getCacheMaxStaleness();
+        this.maxSeriesPerFamily = scrapingSettingsManager.getMaxSeriesPerFamily();
+        this.seriesTtl = scrapingSettingsManager.getSeriesTtl();
+        this.requestSamplingFactor = scrapingSettingsManager.getRequestSamplingFactor();
+        this.clusterAggregation = scrapingSettingsManager.isClusterAggregation();
+        this.durationPaths = StringUtils.join(scrapingSettingsManager.getDurationPaths(), "\n");
         long temp = scheduledMetricEvaluator.getLastExecutionTimestamp();
         this.lastExecutionTimestamp = (temp > 0) ? new Date(temp).toString() : getText(NOT_YET_EXECUTED);
         return INPUT;
@@ -35,6 +63,27 @@ public class SecureTokenConfigAction extends ConfluenceActionSupport {
         if (delay <= 0) {
             addFieldError("delay", getText(ERROR_INVALID_DELAY));
         }
+        if (cacheInterval < 0) {
+            addFieldError("cacheInterval", getText(ERROR_INVALID_CACHE_INTERVAL));
+        }
+        if (cacheMaxStaleness < 0) {
+            addFieldError("cacheMaxStaleness", getText(ERROR_INVALID_CACHE_MAX_STALENESS));
+        }
+        if (maxSeriesPerFamily <= 0) {
+            addFieldError("maxSeriesPerFamily", getText(ERROR_INVALID_MAX_SERIES_PER_FAMILY));
+        }
+        if (seriesTtl < 0) {
+            addFieldError("seriesTtl", getText(ERROR_INVALID_SERIES_TTL));
+        }
+        if (requestSamplingFactor <= 0) {
+            addFieldError("requestSamplingFactor", getText(ERROR_INVALID_REQUEST_SAMPLING_FACTOR));
+        }
+        for (String rule : getDurationPathRules()) {
+            if (!PathPrefixMatcher.isValidRule(rule)) {
+                addFieldError("durationPaths", getText(ERROR_INVALID_DURATION_PATHS));
+                break;
+            }
+        }
     }
 
     @Override
@@ -45,6 +94,17 @@ public class SecureTokenConfigAction extends ConfluenceActionSupport {
         secureTokenManager.setToken(token);
         scrapingSettingsManager.setDelay(delay);
         scheduledMetricEvaluator.restartScraping(delay);
+        scrapingSettingsManager.setCacheInterval(cacheInterval);
+        scrapingSettingsManager.setCacheMaxStaleness(cacheMaxStaleness);
+        expositionCache.restartRefreshing(cacheInterval);
+        scrapingSettingsManager.setMaxSeriesPerFamily(maxSeriesPerFamily);
+        metricCollector.setSeriesLimit(maxSeriesPerFamily);
+        scrapingSettingsManager.setSeriesTtl(seriesTtl);
+        scrapingSettingsManager.setRequestSamplingFactor(requestSamplingFactor);
+        metricCollector.setRequestSamplingFactor(requestSamplingFactor);
+        scrapingSettingsManager.setClusterAggregation(clusterAggregation);
+        scrapingSettingsManager.setDurationPaths(getDurationPathRules());
+        metricCollector.setDurationPaths(getDurationPathRules());
         setSaved(true);
 
         return SUCCESS;
@@ -66,6 +126,14 @@ public class SecureTokenConfigAction extends ConfluenceActionSupport {
         this.scheduledMetricEvaluator = scheduledMetricEvaluator;
     }
 
+    public void setExpositionCache(ExpositionCache expositionCache) {
+        this.expositionCache = expositionCache;
+    }
+
+    public void setMetricCollector(MetricCollector metricCollector) {
+        this.metricCollector = metricCollector;
+    }
+
     public void setScrapingSettingsManager(ScrapingSettingsManager scrapingSettingsManager) {
         this.scrapingSettingsManager = scrapingSettingsManager;
     }
@@ -86,6 +154,74 @@ public class SecureTokenConfigAction extends ConfluenceActionSupport {
         this.delay = delay;
     }
 
+    public int getCacheInterval() {
+        return cacheInterval;
+    }
+
+    public void setCacheInterval(int cacheInterval) {
+        this.cacheInterval = cacheInterval;
+    }
+
+    public int getCacheMaxStaleness() {
+        return cacheMaxStaleness;
+    }
+
+    public void setCacheMaxStaleness(int cacheMaxStaleness) {
+        this.cacheMaxStaleness = cacheMaxStaleness;
+    }
+
+    public int getMaxSeriesPerFamily() {
+        return maxSeriesPerFamily;
+    }
+
+    public void setMaxSeriesPerFamily(int maxSeriesPerFamily) {
+        this.maxSeriesPerFamily = maxSeriesPerFamily;
+    }
+
+    public int getSeriesTtl() {
+        return seriesTtl;
+    }
+
+    public void setSeriesTtl(int seriesTtl) {
+        this.seriesTtl = seriesTtl;
+    }
+
+    public int getRequestSamplingFactor() {
+        return requestSamplingFactor;
+    }
+
+    public void setRequestSamplingFactor(int requestSamplingFactor) {
+        this.requestSamplingFactor = requestSamplingFactor;
+    }
+
+    public boolean isClusterAggregation() {
+        return clusterAggregation;
+    }
+
+    public void setClusterAggregation(boolean clusterAggregation) {
+        this.clusterAggregation = clusterAggregation;
+    }
+
+    public String getDurationPaths() {
+        return durationPaths;
+    }
+
+    public void setDurationPaths(String durationPaths) {
+        this.durationPaths = durationPaths;
+    }
+
+    private List<String> getDurationPathRules() {
+        List<String> rules = new ArrayList<>();
+        if (durationPaths != null) {
+            for (String line : durationPaths.split("\\r?\\n")) {
+                if (StringUtils.isNotBlank(line)) {
+                    rules.add(line.trim());
+                }
+            }
+        }
+        return rules;
+    }
+
     public String getLastExecutionTimestamp() {
         return lastExecutionTimestamp;
     }
@@ -0,0 +1,34 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.action.admin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.atlassian.confluence.core.Beanable;
+import com.atlassian.confluence.core.ConfluenceActionSupport;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.MetricCollector;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.SlowRequestTracker;
+
+public class SlowRequestsAction extends ConfluenceActionSupport implements Beanable {
+    private MetricCollector metricCollector;
+
+    @Override
+    public Object getBean() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (SlowRequestTracker.SlowRequest slowRequest : metricCollector.getSlowRequests()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("path", slowRequest.getPath());
+            item.put("uri", slowRequest.getUri());
+            item.put("user", slowRequest.getUser());
+            item.put("durationMillis", slowRequest.getDurationNanos() / 1000000);
+            item.put("timestamp", slowRequest.getTimestamp());
+            result.add(item);
+        }
+        return result;
+    }
+
+    public void setMetricCollector(MetricCollector metricCollector) {
+        this.metricCollector = metricCollector;
+    }
+}
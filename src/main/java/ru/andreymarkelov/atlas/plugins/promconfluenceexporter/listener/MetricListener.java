@@ -2,6 +2,9 @@ package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.listener;
 
 import com.atlassian.confluence.cluster.safety.ClusterPanicEvent;
 import com.atlassian.confluence.event.events.cluster.ClusterReindexRequiredEvent;
+import com.atlassian.confluence.event.events.content.attachment.AttachmentCreateEvent;
+import com.atlassian.confluence.event.events.content.attachment.AttachmentRemoveEvent;
+import com.atlassian.confluence.event.events.content.attachment.AttachmentUpdateEvent;
 import com.atlassian.confluence.event.events.label.LabelAddEvent;
 import com.atlassian.confluence.event.events.label.LabelCreateEvent;
 import com.atlassian.confluence.event.events.label.LabelDeleteEvent;
@@ -16,6 +19,7 @@ import com.atlassian.confluence.event.events.space.SpaceRemoveEvent;
 import com.atlassian.confluence.labels.Labelable;
 import com.atlassian.confluence.labels.Namespace;
 import com.atlassian.confluence.pages.AbstractPage;
+import com.atlassian.confluence.pages.Attachment;
 import com.atlassian.confluence.pages.Page;
 import com.atlassian.confluence.user.AuthenticatedUserThreadLocal;
 import com.atlassian.event.api.EventListener;
@@ -24,17 +28,27 @@ import com.atlassian.plugin.event.events.PluginDisabledEvent;
 import com.atlassian.plugin.event.events.PluginEnabledEvent;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.ActiveUserTracker;
 import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.MetricCollector;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.ScheduledMetricEvaluator;
+
+import java.util.List;
 
 public class MetricListener implements InitializingBean, DisposableBean {
     private final EventPublisher eventPublisher;
     private final MetricCollector metricCollector;
+    private final ActiveUserTracker activeUserTracker;
+    private final ScheduledMetricEvaluator scheduledMetricEvaluator;
 
     public MetricListener(
             EventPublisher eventPublisher,
-            MetricCollector metricCollector) {
+            MetricCollector metricCollector,
+            ActiveUserTracker activeUserTracker,
+            ScheduledMetricEvaluator scheduledMetricEvaluator) {
         this.eventPublisher = eventPublisher;
         this.metricCollector = metricCollector;
+        this.activeUserTracker = activeUserTracker;
+        this.scheduledMetricEvaluator = scheduledMetricEvaluator;
     }
 
     @Override
@@ -96,6 +110,37 @@ public class MetricListener implements InitializingBean, DisposableBean {
         }
     }
 
+    // Attachments
+
+    /**
+     * The total attachment size counts all versions, trashed ones included, so a new version adds
+     * its size and only a removal subtracts. Older versions removed along are caught by reconciliation.
+     */
+    @EventListener
+    public void onAttachmentCreateEvent(AttachmentCreateEvent attachmentCreateEvent) {
+        scheduledMetricEvaluator.attachmentSizeChanged(fileSize(attachmentCreateEvent.getAttachments()));
+    }
+
+    @EventListener
+    public void onAttachmentUpdateEvent(AttachmentUpdateEvent attachmentUpdateEvent) {
+        scheduledMetricEvaluator.attachmentSizeChanged(fileSize(attachmentUpdateEvent.getAttachments()));
+    }
+
+    @EventListener
+    public void onAttachmentRemoveEvent(AttachmentRemoveEvent attachmentRemoveEvent) {
+        scheduledMetricEvaluator.attachmentSizeChanged(-fileSize(attachmentRemoveEvent.getAttachments()));
+    }
+
+    private static long fileSize(List<Attachment> attachments) {
+        long size = 0;
+        if (attachments != null) {
+            for (Attachment attachment : attachments) {
+                size += attachment.getFileSize();
+            }
+        }
+        return size;
+    }
+
     // Reindex
 
     @EventListener
@@ -130,6 +175,8 @@ public class MetricListener implements InitializingBean, DisposableBean {
         String username = loginEvent.getUsername();
         if (username == null) {
             username = "";
+        } else {
+            activeUserTracker.userLogin(username, System.currentTimeMillis());
         }
         String ip = loginEvent.getRemoteIP();
         if (ip == null) {
@@ -0,0 +1,10 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
+
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.RollingUniqueCounter;
+
+public interface ActiveUserTracker {
+    void userLogin(String username, long time);
+    long getActiveUsers(RollingUniqueCounter.Window window);
+    boolean isSeeded();
+    void setSeeded();
+}
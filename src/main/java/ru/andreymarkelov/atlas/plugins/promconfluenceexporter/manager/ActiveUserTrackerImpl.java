@@ -0,0 +1,134 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.RollingUniqueCounter;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Counts distinct users logged in within rolling windows from login events. The windows are saved
+ * into plugin settings periodically and on shutdown. Saving merges the stored state first, so the
+ * nodes of a cluster share their users through it.
+ */
+public class ActiveUserTrackerImpl implements ActiveUserTracker, DisposableBean, InitializingBean {
+    private static final Logger log = LoggerFactory.getLogger(ActiveUserTrackerImpl.class);
+
+    private static final String SETTINGS_KEY = "activeUserSketches";
+    private static final long SAVE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private final PluginSettings pluginSettings;
+    private final RollingUniqueCounter activeUsers;
+
+    /**
+     * Scheduled executor to save the windows.
+     */
+    private final ScheduledExecutorService executorService;
+
+    private volatile boolean seeded;
+
+    public ActiveUserTrackerImpl(PluginSettingsFactory pluginSettingsFactory) {
+        this.pluginSettings = pluginSettingsFactory.createSettingsForKey("PLUGIN_PROMETHEUS_FOR_CONFLUENCE");
+        this.activeUsers = new RollingUniqueCounter();
+        this.executorService = newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread thread = defaultThreadFactory().newThread(r);
+                thread.setPriority(MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void userLogin(String username, long time) {
+        activeUsers.add(username.toLowerCase(Locale.ROOT), time);
+    }
+
+    @Override
+    public long getActiveUsers(RollingUniqueCounter.Window window) {
+        return activeUsers.estimate(window, System.currentTimeMillis());
+    }
+
+    @Override
+    public boolean isSeeded() {
+        return seeded;
+    }
+
+    @Override
+    public void setSeeded() {
+        seeded = true;
+        save();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        // windows found in settings have been seeded before, by this node or another one
+        seeded = load();
+        executorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (seeded) {
+                    save();
+                }
+            }
+        }, SAVE_INTERVAL_MS, SAVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(1, TimeUnit.SECONDS)) {
+                executorService.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+        }
+        if (seeded) {
+            save();
+        }
+    }
+
+    private boolean load() {
+        try {
+            Object storedValue = getPluginSettings().get(SETTINGS_KEY);
+            if (storedValue == null) {
+                return false;
+            }
+            activeUsers.merge(Base64.decodeBase64(storedValue.toString()));
+            return true;
+        } catch (Exception ex) {
+            log.warn("Cannot read stored active users, they are seeded again", ex);
+            return false;
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            load();
+            getPluginSettings().put(SETTINGS_KEY, Base64.encodeBase64String(activeUsers.toBytes()));
+        } catch (IOException | RuntimeException ex) {
+            log.error("Cannot store active users", ex);
+        }
+    }
+
+    private synchronized PluginSettings getPluginSettings() {
+        return pluginSettings;
+    }
+}
@@ -0,0 +1,10 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
+
+import io.prometheus.client.Collector;
+
+import java.util.List;
+
+public interface ClusterMetricAggregator {
+    boolean isEnabled();
+    List<Collector.MetricFamilySamples> aggregate();
+}
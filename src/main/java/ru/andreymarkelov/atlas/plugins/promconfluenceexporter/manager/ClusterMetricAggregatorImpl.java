@@ -0,0 +1,172 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
+
+import com.atlassian.cache.Cache;
+import com.atlassian.cache.CacheLoader;
+import com.atlassian.cache.CacheManager;
+import com.atlassian.cache.CacheSettingsBuilder;
+import io.prometheus.client.Collector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.ClusterSnapshotMerger;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.MetricFilter;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.NodeSnapshot;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Publishes the local metrics of the node into a cluster-wide cache and merges the snapshots of
+ * all nodes on request.
+ */
+public class ClusterMetricAggregatorImpl implements ClusterMetricAggregator, DisposableBean, InitializingBean {
+    private static final Logger log = LoggerFactory.getLogger(ClusterMetricAggregatorImpl.class);
+
+    private static final String CACHE_NAME = ClusterMetricAggregatorImpl.class.getName() + ".snapshots";
+    private static final long PUBLISH_INTERVAL_MS = TimeUnit.SECONDS.toMillis(15);
+
+    /**
+     * Snapshots of nodes which stopped publishing are ignored after this age.
+     */
+    private static final long MAX_SNAPSHOT_AGE_MS = 4 * PUBLISH_INTERVAL_MS;
+
+    private final MetricCollector metricCollector;
+    private final ScrapingSettingsManager scrapingSettingsManager;
+    private final Cache<String, byte[]> snapshots;
+    private final String nodeKey;
+    private final String nodeName;
+
+    /**
+     * Scheduled executor to publish the snapshot of the node.
+     */
+    private final ScheduledExecutorService executorService;
+
+    public ClusterMetricAggregatorImpl(
+            MetricCollector metricCollector,
+            ScrapingSettingsManager scrapingSettingsManager,
+            CacheManager cacheManager) {
+        this.metricCollector = metricCollector;
+        this.scrapingSettingsManager = scrapingSettingsManager;
+        this.snapshots = cacheManager.getCache(
+                CACHE_NAME,
+                (CacheLoader<String, byte[]>) null,
+                new CacheSettingsBuilder()
+                        .remote()
+                        .replicateViaCopy()
+                        .expireAfterWrite(MAX_SNAPSHOT_AGE_MS, TimeUnit.MILLISECONDS)
+                        .build());
+        this.nodeKey = UUID.randomUUID().toString();
+        this.nodeName = resolveNodeName();
+        this.executorService = newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread thread = defaultThreadFactory().newThread(r);
+                thread.setPriority(MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return scrapingSettingsManager.isClusterAggregation();
+    }
+
+    @Override
+    public List<Collector.MetricFamilySamples> aggregate() {
+        long now = System.currentTimeMillis();
+        List<NodeSnapshot> nodeSnapshots = new ArrayList<>();
+        nodeSnapshots.add(publish());
+        for (String key : snapshots.getKeys()) {
+            if (nodeKey.equals(key)) {
+                continue;
+            }
+            byte[] bytes = snapshots.get(key);
+            if (bytes == null) {
+                continue;
+            }
+            try {
+                NodeSnapshot nodeSnapshot = NodeSnapshot.fromBytes(bytes);
+                if (now - nodeSnapshot.getTimestamp() <= MAX_SNAPSHOT_AGE_MS) {
+                    nodeSnapshots.add(nodeSnapshot);
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.warn("Skip unreadable metrics snapshot of node {}", key, ex);
+            }
+        }
+
+        // inventory and license values are read from the shared database, every node reports the same
+        Set<String> deduplicatedFamilies = new HashSet<>();
+        deduplicatedFamilies.addAll(metricCollector.getFamilyNames(MetricGroup.INVENTORY));
+        deduplicatedFamilies.addAll(metricCollector.getFamilyNames(MetricGroup.LICENSE));
+        return ClusterSnapshotMerger.merge(nodeSnapshots, deduplicatedFamilies);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        executorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (isEnabled()) {
+                        publish();
+                    }
+                } catch (Throwable th) {
+                    log.error("Error publish metrics snapshot", th);
+                }
+            }
+        }, 0, PUBLISH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(1, TimeUnit.SECONDS)) {
+                executorService.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+        }
+        try {
+            snapshots.remove(nodeKey);
+        } catch (Exception ex) {
+            log.debug("Unable to remove metrics snapshot of the node", ex);
+        }
+    }
+
+    private NodeSnapshot publish() {
+        NodeSnapshot nodeSnapshot = new NodeSnapshot(nodeName, System.currentTimeMillis(), metricCollector.collect(MetricFilter.ALL));
+        try {
+            snapshots.put(nodeKey, nodeSnapshot.toBytes());
+        } catch (IOException ex) {
+            log.error("Error serialize metrics snapshot", ex);
+        }
+        return nodeSnapshot;
+    }
+
+    private static String resolveNodeName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException ex) {
+            log.warn("Unable to resolve host name, use random node name", ex);
+            return UUID.randomUUID().toString();
+        }
+    }
+}
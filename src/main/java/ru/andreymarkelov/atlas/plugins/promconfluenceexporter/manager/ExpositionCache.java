@@ -0,0 +1,9 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
+
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.Exposition;
+
+public interface ExpositionCache {
+    boolean isEnabled();
+    Exposition get();
+    void restartRefreshing(int newInterval);
+}
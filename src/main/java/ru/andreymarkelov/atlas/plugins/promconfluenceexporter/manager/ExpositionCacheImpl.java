@@ -0,0 +1,164 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.Exposition;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.ExpositionFormat;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.Thread.MIN_PRIORITY;
+import static java.util.Collections.list;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+public class ExpositionCacheImpl implements ExpositionCache, DisposableBean, InitializingBean {
+    private static final Logger log = LoggerFactory.getLogger(ExpositionCacheImpl.class);
+
+    private final MetricCollector metricCollector;
+    private final ScrapingSettingsManager scrapingSettingsManager;
+
+    /**
+     * Scheduled executor to render payload.
+     */
+    private final ScheduledExecutorService executorService;
+    private final Lock lock;
+    private final Lock renderLock;
+
+    private volatile Exposition exposition;
+    private volatile int interval;
+
+    private ScheduledFuture<?> refresher;
+
+    public ExpositionCacheImpl(
+            MetricCollector metricCollector,
+            ScrapingSettingsManager scrapingSettingsManager) {
+        this.metricCollector = metricCollector;
+        this.scrapingSettingsManager = scrapingSettingsManager;
+        this.executorService = newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread thread = defaultThreadFactory().newThread(r);
+                thread.setPriority(MIN_PRIORITY);
+                return thread;
+            }
+        });
+        this.lock = new ReentrantLock();
+        this.renderLock = new ReentrantLock();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return interval > 0;
+    }
+
+    @Override
+    public Exposition get() {
+        Exposition current = exposition;
+        if (current != null && !isStale(current)) {
+            return current;
+        }
+
+        // refresher is late or not started yet, so render on the scrape thread
+        renderLock.lock();
+        try {
+            current = exposition;
+            if (current == null || isStale(current)) {
+                current = render();
+            }
+            return current;
+        } finally {
+            renderLock.unlock();
+        }
+    }
+
+    @Override
+    public void restartRefreshing(int newInterval) {
+        lock.lock();
+        try {
+            stopRefreshing();
+            startRefreshing(newInterval);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        lock.lock();
+        try {
+            startRefreshing(scrapingSettingsManager.getCacheInterval());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(1, TimeUnit.SECONDS)) {
+                executorService.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+        }
+    }
+
+    private boolean isStale(Exposition current) {
+        int maxStaleness = scrapingSettingsManager.getCacheMaxStaleness();
+        return maxStaleness > 0 && current.getAge() > TimeUnit.SECONDS.toMillis(maxStaleness);
+    }
+
+    private void stopRefreshing() {
+        if (refresher != null && !refresher.cancel(false)) {
+            log.debug("Unable to cancel refreshing, typically because it has already completed.");
+        }
+        refresher = null;
+        exposition = null;
+    }
+
+    private void startRefreshing(int newInterval) {
+        interval = newInterval;
+        if (newInterval <= 0) {
+            return;
+        }
+
+        refresher = executorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                renderLock.lock();
+                try {
+                    render();
+                } catch (Throwable th) {
+                    log.error("Error render prometheus metrics", th);
+                } finally {
+                    renderLock.unlock();
+                }
+            }
+        }, 0, newInterval, TimeUnit.SECONDS);
+    }
+
+    private Exposition render() {
+        long start = System.currentTimeMillis();
+        Exposition rendered = new Exposition(list(metricCollector.getRegistry().metricFamilySamples()), start);
+        try {
+            // most scrapers ask for the plain text format, so render it ahead of them
+            rendered.getPayload(ExpositionFormat.TEXT_004, false, null);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot render prometheus metrics", ex);
+        }
+        exposition = rendered;
+        log.debug("Render execution time is: {}ms", System.currentTimeMillis() - start);
+        return rendered;
+    }
+}
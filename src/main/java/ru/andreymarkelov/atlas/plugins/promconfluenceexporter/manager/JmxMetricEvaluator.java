@@ -1,9 +1,7 @@
 package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
 
-import io.prometheus.client.Collector;
-
 import java.util.List;
 
 public interface JmxMetricEvaluator {
-    List<Collector.MetricFamilySamples> metrics();
+    List<MetricSection> sections();
 }
@@ -1,21 +1,16 @@
 package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
 
-import io.prometheus.client.Collector;
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import java.lang.management.ManagementFactory;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class JmxMetricEvaluatorImpl implements JmxMetricEvaluator {
-    private static final Logger log = LoggerFactory.getLogger(JmxMetricEvaluatorImpl.class);
-
     private int lastRequestErrorCount = 0;
 
     // IndexingStatistics
@@ -76,76 +71,54 @@ public class JmxMetricEvaluatorImpl implements JmxMetricEvaluator {
     }
 
     @Override
-    public List<Collector.MetricFamilySamples> metrics() {
-        indexStatistics();
-        systemStatistics();
-        requestStatistics();
-        cacheStatistics();
-
-        List<Collector.MetricFamilySamples> res = new ArrayList<>();
-        // index
-        res.addAll(indexStatFlushing.collect());
-        res.addAll(indexStatLastDuration.collect());
-        res.addAll(indexStatTaskQueueLength.collect());
-        res.addAll(indexStatReIndexing.collect());
-        // system
-        res.addAll(systemStatDbLatency.collect());
-        // requests
-        res.addAll(requestAvgExecTimeForLastTenRequests.collect());
-        res.addAll(requestCurrentNumberOfRequestsBeingServed.collect());
-        res.addAll(requestErrorCount.collect());
-        res.addAll(requestNumberInLastTenSeconds.collect());
-        return res;
+    public List<MetricSection> sections() {
+        return Arrays.asList(
+                new MetricSection("jmx_index", MetricGroup.JMX, indexStatFlushing, indexStatLastDuration, indexStatTaskQueueLength, indexStatReIndexing) {
+                    @Override
+                    protected void refresh() throws JMException {
+                        indexStatistics();
+                    }
+                },
+                new MetricSection("jmx_system", MetricGroup.JMX, systemStatDbLatency) {
+                    @Override
+                    protected void refresh() throws JMException {
+                        systemStatistics();
+                    }
+                },
+                new MetricSection("jmx_request", MetricGroup.JMX,
+                        requestAvgExecTimeForLastTenRequests,
+                        requestCurrentNumberOfRequestsBeingServed,
+                        requestErrorCount,
+                        requestNumberInLastTenSeconds) {
+                    @Override
+                    protected void refresh() throws JMException {
+                        requestStatistics();
+                    }
+                });
     }
 
-    private void indexStatistics() {
-        try {
-            ObjectName objectName = new ObjectName("Confluence:name=IndexingStatistics");
-            indexStatFlushing.set(getBoolean(mBeanServer.getAttribute(objectName, "Flushing")));
-            indexStatLastDuration.set(getLong(mBeanServer.getAttribute(objectName, "LastElapsedMilliseconds")));
-            indexStatTaskQueueLength.set(getInt(mBeanServer.getAttribute(objectName, "TaskQueueLength")));
-            indexStatReIndexing.set(getBoolean(mBeanServer.getAttribute(objectName, "ReIndexing")));
-        } catch (InstanceNotFoundException ex) {
-            log.warn("JMX stat not found in JVM", ex);
-        } catch (Exception ex) {
-            log.error("Cannot load JMX index stats", ex);
-        }
+    private void indexStatistics() throws JMException {
+        ObjectName objectName = new ObjectName("Confluence:name=IndexingStatistics");
+        indexStatFlushing.set(getBoolean(mBeanServer.getAttribute(objectName, "Flushing")));
+        indexStatLastDuration.set(getLong(mBeanServer.getAttribute(objectName, "LastElapsedMilliseconds")));
+        indexStatTaskQueueLength.set(getInt(mBeanServer.getAttribute(objectName, "TaskQueueLength")));
+        indexStatReIndexing.set(getBoolean(mBeanServer.getAttribute(objectName, "ReIndexing")));
     }
 
-    private void systemStatistics() {
-        try {
-            ObjectName objectName = new ObjectName("Confluence:name=SystemInformation");
-            systemStatDbLatency.set(getLong(mBeanServer.getAttribute(objectName, "DatabaseExampleLatency")));
-        } catch (InstanceNotFoundException ex) {
-            log.warn("JMX stat not found in JVM", ex);
-        } catch (Exception ex) {
-            log.error("Cannot load JMX system stats", ex);
-        }
+    private void systemStatistics() throws JMException {
+        ObjectName objectName = new ObjectName("Confluence:name=SystemInformation");
+        systemStatDbLatency.set(getLong(mBeanServer.getAttribute(objectName, "DatabaseExampleLatency")));
     }
 
-    private void requestStatistics() {
-        try {
-            ObjectName objectName = new ObjectName("Confluence:name=RequestMetrics");
-            requestAvgExecTimeForLastTenRequests.set(getInt(mBeanServer.getAttribute(objectName, "AverageExecutionTimeForLastTenRequests")));
-            requestCurrentNumberOfRequestsBeingServed.set(getInt(mBeanServer.getAttribute(objectName, "CurrentNumberOfRequestsBeingServed")));
-            requestNumberInLastTenSeconds.set(getInt(mBeanServer.getAttribute(objectName, "NumberOfRequestsInLastTenSeconds")));
-
-            int currentRequestErrorCount = getInt(mBeanServer.getAttribute(objectName, "ErrorCount"));
-            requestErrorCount.inc(currentRequestErrorCount - lastRequestErrorCount);
-            lastRequestErrorCount = currentRequestErrorCount;
-        } catch (InstanceNotFoundException ex) {
-            log.warn("JMX stat not found in JVM", ex);
-        } catch (Exception ex) {
-            log.error("Cannot load JMX request stats", ex);
-        }
-    }
+    private void requestStatistics() throws JMException {
+        ObjectName objectName = new ObjectName("Confluence:name=RequestMetrics");
+        requestAvgExecTimeForLastTenRequests.set(getInt(mBeanServer.getAttribute(objectName, "AverageExecutionTimeForLastTenRequests")));
+        requestCurrentNumberOfRequestsBeingServed.set(getInt(mBeanServer.getAttribute(objectName, "CurrentNumberOfRequestsBeingServed")));
+        requestNumberInLastTenSeconds.set(getInt(mBeanServer.getAttribute(objectName, "NumberOfRequestsInLastTenSeconds")));
 
-    private void cacheStatistics() {
-        try {
-            ObjectName objectName = new ObjectName("Confluence:name=CacheStatistics");
-        } catch (Exception ex) {
-            log.error("Cannot load JMX cache stats", ex);
-        }
+        int currentRequestErrorCount = getInt(mBeanServer.getAttribute(objectName, "ErrorCount"));
+        requestErrorCount.inc(currentRequestErrorCount - lastRequestErrorCount);
+        lastRequestErrorCount = currentRequestErrorCount;
     }
 
     private static double getBoolean(Object obj) {
@@ -1,13 +1,26 @@
 package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
 
+import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.CountingResponseWrapper;
 import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.ExceptionRunnable;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.ExpositionFormat;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.MetricFilter;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.SlowRequestTracker;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
 
 public interface MetricCollector {
     CollectorRegistry getRegistry();
+    List<Collector.MetricFamilySamples> collect(MetricFilter filter);
+    Enumeration<Collector.MetricFamilySamples> filteredMetricFamilySamples(MetricFilter filter);
+    Enumeration<Collector.MetricFamilySamples> groupMetricFamilySamples(MetricGroup group, MetricFilter filter);
+    Set<String> getFamilyNames(MetricGroup group);
     void clusterPanicCounter();
     void labelCreateCounter(String visibility, String prefix);
     void labelAddCounter(String visibility, String prefix, String source, String spaceKey);
@@ -22,5 +35,11 @@ public interface MetricCollector {
     void pluginDisabledEvent(String pluginKey);
     void pluginInstallEvent(String pluginKey);
     void pluginUninstallEvent(String pluginKey);
-    void requestDuration(String path, ExceptionRunnable runnable) throws IOException, ServletException;
+    void setSeriesLimit(int limit);
+    void setRequestSamplingFactor(int samplingFactor);
+    void setDurationPaths(List<String> rules);
+    void payloadSize(ExpositionFormat format, boolean gzip, long size);
+    List<SlowRequestTracker.SlowRequest> getSlowRequests();
+    boolean isInstrumented(String uri, int offset);
+    void requestDuration(HttpServletRequest request, String path, CountingResponseWrapper response, ExceptionRunnable runnable) throws IOException, ServletException;
 }
@@ -3,48 +3,243 @@ package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
 import com.atlassian.confluence.cluster.ClusterManager;
 import com.atlassian.confluence.license.LicenseService;
 import com.atlassian.confluence.license.exception.LicenseException;
+import com.atlassian.confluence.user.AuthenticatedUserThreadLocal;
 import com.atlassian.core.task.ErrorQueuedTaskQueue;
 import com.atlassian.core.task.MultiQueueTaskManager;
 import com.atlassian.extras.api.confluence.ConfluenceLicense;
 import io.prometheus.client.*;
-import io.prometheus.client.hotspot.DefaultExports;
+import io.prometheus.client.hotspot.BufferPoolsExports;
+import io.prometheus.client.hotspot.ClassLoadingExports;
+import io.prometheus.client.hotspot.GarbageCollectorExports;
+import io.prometheus.client.hotspot.MemoryPoolsExports;
+import io.prometheus.client.hotspot.StandardExports;
+import io.prometheus.client.hotspot.ThreadExports;
+import io.prometheus.client.hotspot.VersionInfoExports;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.CardinalityGuard;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.ConcurrencyGauge;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.CountingResponseWrapper;
 import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.ExceptionRunnable;
-
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.ExpositionFormat;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.MetricFilter;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.PathPrefixMatcher;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.RollingUniqueCounter;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.ScheduledTask;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.SingleFlight;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.SlowRequestTracker;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.SpaceUsage;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.StripedHistogram;
+
+import javax.annotation.Nonnull;
+import javax.management.InstanceNotFoundException;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.lang.Thread.MIN_PRIORITY;
 import static java.util.Collections.emptyList;
-import static org.apache.commons.lang3.StringUtils.isNotBlank;
-
-public class MetricCollectorImpl extends Collector implements MetricCollector, DisposableBean, InitializingBean {
+import static java.util.Collections.emptySet;
+import static java.util.Collections.enumeration;
+import static java.util.Collections.unmodifiableSet;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newScheduledThreadPool;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+public class MetricCollectorImpl extends Collector implements Collector.Describable, MetricCollector, DisposableBean, InitializingBean {
     private static final Logger log = LoggerFactory.getLogger(MetricCollectorImpl.class);
 
+    /**
+     * Scrapes arriving within this window share one collection.
+     */
+    private static final long COLLECT_COALESCE_WINDOW_MS = 1000;
+
+    private static final double NANOSECONDS_PER_SECOND = 1E9;
+    private static final double MILLISECONDS_PER_SECOND = 1E3;
+
+    /**
+     * Refresh intervals and staleness bounds of the sections sampled in background.
+     */
+    private static final long CLUSTER_SAMPLE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long CLUSTER_MAX_STALENESS_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long LICENSE_SAMPLE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long LICENSE_MAX_STALENESS_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long MAIL_SAMPLE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(15);
+    private static final long MAIL_MAX_STALENESS_MS = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * One thread per sampled section, so a stalled source does not delay the others, and one for
+     * the idle series sweeper.
+     */
+    private static final int SAMPLER_THREADS = 4;
+
+    private static final long SERIES_SWEEP_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Bounded label values of the request metrics.
+     */
+    private static final String[] HTTP_METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH", "other"};
+    private static final String[] STATUS_CLASSES = {"unknown", "1xx", "2xx", "3xx", "4xx", "5xx"};
+    private static final int OTHER_METHOD = HTTP_METHODS.length - 1;
+    private static final int SERVER_ERROR = 5;
+
+    /**
+     * Number of the slowest requests kept and how long each of them is kept.
+     */
+    private static final int SLOW_REQUESTS = 20;
+    private static final long SLOW_REQUEST_MAX_AGE_MS = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * Group serving the families of the hotspot collectors.
+     */
+    private static final MetricGroup JVM_GROUP = MetricGroup.JMX;
+
+    private static final String COALESCED_SCRAPE_COUNT = "confluence_exporter_coalesced_scrape_count";
+
     private final ClusterManager clusterManager;
     private final LicenseService licenseService;
     private final ScheduledMetricEvaluator scheduledMetricEvaluator;
     private final CollectorRegistry registry;
     private final MultiQueueTaskManager taskManager;
     private final JmxMetricEvaluator jmxMetricEvaluator;
+    private final ScrapingSettingsManager scrapingSettingsManager;
+    private final ActiveUserTracker activeUserTracker;
+    private final SingleFlight<List<MetricFamilySamples>> collectFlight;
+    private final Map<MetricGroup, SingleFlight<List<MetricFamilySamples>>> groupFlights;
+    private final List<MetricSection> sections;
+
+    /**
+     * Sections whose MBean is not registered on this instance, which is logged once.
+     */
+    private final Set<String> unregisteredMBeanSections;
+
+    /**
+     * Hotspot collectors registered by this component, unregistered on destroy.
+     */
+    private final List<Collector> jvmCollectors;
+
+    /**
+     * Family names of the hotspot collectors, read once on registration to match filter patterns.
+     */
+    private volatile Set<String> jvmFamilyNames;
+
+    /**
+     * Whether this collector is registered, destroy may come without a successful start.
+     */
+    private volatile boolean registered;
+
+    /**
+     * Series limits of the labelled collectors, keyed by collector.
+     */
+    private final Map<SimpleCollector<?>, CardinalityGuard> guards;
+
+    /**
+     * Request counters by route group and request series by normalized path.
+     */
+    private final ConcurrentMap<String, RouteGroup> routeGroups;
+    private final ConcurrentMap<String, PathSeries> pathSeries;
+
+    /**
+     * Only 1 in this many requests is timed.
+     */
+    private volatile int requestSamplingFactor;
+
+    /**
+     * Include and exclude rules of the instrumented request paths.
+     */
+    private volatile PathPrefixMatcher durationPaths;
+
+    private final SlowRequestTracker slowRequests;
+
+    /**
+     * Scheduled executor to sample slow sources off the scrape thread.
+     */
+    private final ScheduledExecutorService samplerService;
 
     public MetricCollectorImpl(
             ClusterManager clusterManager,
             LicenseService licenseService,
             ScheduledMetricEvaluator scheduledMetricEvaluator,
             MultiQueueTaskManager taskManager,
-            JmxMetricEvaluator jmxMetricEvaluator) {
+            JmxMetricEvaluator jmxMetricEvaluator,
+            ScrapingSettingsManager scrapingSettingsManager,
+            ActiveUserTracker activeUserTracker) {
         this.clusterManager = clusterManager;
         this.licenseService = licenseService;
         this.scheduledMetricEvaluator = scheduledMetricEvaluator;
         this.taskManager = taskManager;
         this.jmxMetricEvaluator = jmxMetricEvaluator;
-        this.registry = CollectorRegistry.defaultRegistry;
+        this.scrapingSettingsManager = scrapingSettingsManager;
+        this.activeUserTracker = activeUserTracker;
+        this.registry = new CollectorRegistry(true);
+        this.collectFlight = new SingleFlight<>(COLLECT_COALESCE_WINDOW_MS);
+        this.groupFlights = new EnumMap<>(MetricGroup.class);
+        for (MetricGroup group : MetricGroup.values()) {
+            groupFlights.put(group, new SingleFlight<List<MetricFamilySamples>>(Math.max(COLLECT_COALESCE_WINDOW_MS, group.getCacheIntervalMillis())));
+        }
+        this.sections = createSections();
+        this.unregisteredMBeanSections = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.jvmCollectors = new ArrayList<>();
+        this.jvmFamilyNames = emptySet();
+        this.guards = new IdentityHashMap<>();
+        this.routeGroups = new ConcurrentHashMap<>();
+        this.pathSeries = new ConcurrentHashMap<>();
+        this.slowRequests = new SlowRequestTracker(SLOW_REQUESTS, SLOW_REQUEST_MAX_AGE_MS);
+        setRequestSamplingFactor(scrapingSettingsManager.getRequestSamplingFactor());
+        setDurationPaths(scrapingSettingsManager.getDurationPaths());
+        for (SimpleCollector<?> collector : Arrays.<SimpleCollector<?>>asList(
+                requestDurationOnPath,
+                requestAsyncDurationOnPath,
+                labelCreateCounter,
+                labelAddCounter,
+                labelRemoveCounter,
+                labelDeleteCounter,
+                userLoginCounter,
+                userLogoutCounter,
+                userLoginFailedCounter,
+                spaceCreateCounter,
+                spaceDeleteCounter,
+                pluginEnabledEvent,
+                pluginDisabledEvent,
+                pluginInstallEvent,
+                pluginUninstallEvent)) {
+            guard(collector);
+        }
+        // response sizes are recorded under the same labels as durations by status
+        guard(requestDurationByStatus, responseSize);
+        this.samplerService = newScheduledThreadPool(SAMPLER_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread thread = defaultThreadFactory().newThread(r);
+                thread.setPriority(MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     private final Gauge maintenanceExpiryDaysGauge = Gauge.build()
@@ -72,6 +267,12 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
             .help("Users Login Today Gauge")
             .create();
 
+    private final Gauge uniqueActiveUsers = Gauge.build()
+            .name("confluence_unique_active_users")
+            .help("Estimated distinct users logged in within the rolling window")
+            .labelNames("window")
+            .create();
+
     private final Gauge allowedUsersGauge = Gauge.build()
             .name("confluence_allowed_users_gauge")
             .help("Allowed Users Gauge")
@@ -82,12 +283,82 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
             .help("Total Attachments Size Gauge")
             .create();
 
-    private final Histogram requestDurationOnPath = Histogram.build()
+    private final Gauge spacePages = Gauge.build()
+            .name("confluence_space_pages")
+            .help("Current pages by space, spaces out of the largest summed up as other")
+            .labelNames("space")
+            .create();
+
+    private final Gauge spaceBlogPosts = Gauge.build()
+            .name("confluence_space_blogposts")
+            .help("Current blog posts by space, spaces out of the largest summed up as other")
+            .labelNames("space")
+            .create();
+
+    private final Gauge spaceAttachmentSize = Gauge.build()
+            .name("confluence_space_attachment_size_bytes")
+            .help("Size of attachments with all versions by space, spaces out of the largest summed up as other")
+            .labelNames("space")
+            .create();
+
+    private final Gauge attachmentSizeDriftGauge = Gauge.build()
+            .name("confluence_attachment_size_drift_bytes")
+            .help("Difference of the event based attachment size to the database at the last reconciliation")
+            .create();
+
+    private final StripedHistogram requestDurationOnPath = StripedHistogram.build()
             .name("confluence_request_duration_on_path")
             .help("Request duration on path")
             .labelNames("path")
             .create();
 
+    private final StripedHistogram requestAsyncDurationOnPath = StripedHistogram.build()
+            .name("confluence_request_async_duration_on_path")
+            .help("Async request duration on path, until the response is completed")
+            .labelNames("path")
+            .create();
+
+    private final Counter requestCount = Counter.build()
+            .name("confluence_request_count")
+            .help("Requests by route group, counted whether timed or not")
+            .labelNames("route")
+            .create();
+
+    private final Gauge requestSamplingFactorGauge = Gauge.build()
+            .name("confluence_request_sampling_factor")
+            .help("Request timings are recorded for 1 in this many requests, multiply their counts and sums by it")
+            .create();
+
+    private final Gauge requestsInFlight = Gauge.build()
+            .name("confluence_requests_in_flight")
+            .help("Requests in progress by route group")
+            .labelNames("route")
+            .create();
+
+    private final Gauge requestsInFlightMax = Gauge.build()
+            .name("confluence_requests_in_flight_max")
+            .help("Peak of requests in progress by route group within the last minute")
+            .labelNames("route")
+            .create();
+
+    private final Gauge slowRequestDuration = Gauge.build()
+            .name("confluence_slow_request_duration_seconds")
+            .help("Slowest requests of the last 15 minutes, ranked from 1")
+            .labelNames("rank", "path")
+            .create();
+
+    private final Summary requestDurationByStatus = Summary.build()
+            .name("confluence_request_duration_by_status_seconds")
+            .help("Request duration by path, method and status class")
+            .labelNames("path", "method", "status")
+            .create();
+
+    private final Summary responseSize = Summary.build()
+            .name("confluence_response_size_bytes")
+            .help("Response body size by path, method and status class")
+            .labelNames("path", "method", "status")
+            .create();
+
     private final Gauge totalCurrentContentGauge = Gauge.build()
             .name("confluence_current_contents_gauge")
             .help("Current Contents Gauge")
@@ -204,6 +475,62 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
             .help("JVM Uptime Gauge")
             .create();
 
+    //--> Exporter
+
+    private final Histogram sectionDuration = Histogram.build()
+            .name("confluence_exporter_section_duration_seconds")
+            .help("Time spent collecting a metrics section")
+            .labelNames("section")
+            .create();
+
+    private final Counter sectionErrors = Counter.build()
+            .name("confluence_exporter_section_error_count")
+            .help("Failed collections of a metrics section")
+            .labelNames("section")
+            .create();
+
+    private final Gauge sectionLastSuccess = Gauge.build()
+            .name("confluence_exporter_section_last_success_timestamp_seconds")
+            .help("Time of the last successful collection of a metrics section")
+            .labelNames("section")
+            .create();
+
+    private final Gauge sectionValueAge = Gauge.build()
+            .name("confluence_exporter_section_value_age_seconds")
+            .help("Age of the values of a background sampled metrics section")
+            .labelNames("section")
+            .create();
+
+    private final Gauge taskDuration = Gauge.build()
+            .name("confluence_exporter_task_duration_seconds")
+            .help("Duration of the last run of a scheduled evaluator task")
+            .labelNames("task")
+            .create();
+
+    private final Gauge taskLastSuccess = Gauge.build()
+            .name("confluence_exporter_task_last_success_timestamp_seconds")
+            .help("Time of the last successful run of a scheduled evaluator task")
+            .labelNames("task")
+            .create();
+
+    private final Counter rejectedSeries = Counter.build()
+            .name("confluence_exporter_rejected_series_count")
+            .help("Observations folded into the __other__ series because of the series limit")
+            .labelNames("family")
+            .create();
+
+    private final Gauge liveSeries = Gauge.build()
+            .name("confluence_exporter_live_series")
+            .help("Label combinations currently held by a labelled metric")
+            .labelNames("family")
+            .create();
+
+    private final Gauge payloadSize = Gauge.build()
+            .name("confluence_exporter_payload_size_bytes")
+            .help("Size of the last encoded metrics payload")
+            .labelNames("format", "encoding")
+            .create();
+
     //--> Plugins
 
     private final Counter pluginEnabledEvent = Counter.build()
@@ -231,13 +558,253 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
             .create();
 
     @Override
-    public void requestDuration(String path, ExceptionRunnable runnable) throws IOException, ServletException {
-        Histogram.Timer pathTimer = isNotBlank(path) ? requestDurationOnPath.labels(path).startTimer() : null;
+    public void requestDuration(HttpServletRequest request, String path, CountingResponseWrapper response, ExceptionRunnable runnable) throws IOException, ServletException {
+        if (isBlank(path)) {
+            runnable.run();
+            return;
+        }
+
+        PathSeries series = pathSeries(path);
+        RouteGroup routeGroup = series.routeGroup;
+        routeGroup.requests.inc();
+        routeGroup.concurrency.enter();
+        int samplingFactor = requestSamplingFactor;
+        boolean timed = samplingFactor <= 1 || ThreadLocalRandom.current().nextInt(samplingFactor) == 0;
+        long start = timed ? System.nanoTime() : 0;
+        boolean failed = true;
         try {
             runnable.run();
+            failed = false;
         } finally {
-            if (pathTimer != null) {
-                pathTimer.observeDuration();
+            if (!failed && request.isAsyncStarted()) {
+                // the container thread is released, the response completes later
+                request.getAsyncContext().addListener(new AsyncRequestListener(
+                        request, series, timed ? methodIndex(request.getMethod()) : OTHER_METHOD, response, timed, start));
+            } else {
+                routeGroup.concurrency.exit();
+                if (timed) {
+                    long elapsed = System.nanoTime() - start;
+                    duration(series, false).observeNanos(elapsed);
+                    recordResponse(series, methodIndex(request.getMethod()), failed ? SERVER_ERROR : statusIndex(response.getStatus()), elapsed, response.getCount());
+                    trackSlow(request, path, AuthenticatedUserThreadLocal.getUsername(), elapsed);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isInstrumented(String uri, int offset) {
+        return durationPaths.matches(uri, offset);
+    }
+
+    @Override
+    public void setDurationPaths(List<String> rules) {
+        this.durationPaths = PathPrefixMatcher.compile(rules);
+    }
+
+    @Override
+    public List<SlowRequestTracker.SlowRequest> getSlowRequests() {
+        return slowRequests.getSlowRequests();
+    }
+
+    @Override
+    public void setRequestSamplingFactor(int samplingFactor) {
+        this.requestSamplingFactor = samplingFactor;
+        requestSamplingFactorGauge.set(samplingFactor);
+    }
+
+    /**
+     * Returns the series of the path, which belongs to the route group of its first segment.
+     */
+    private PathSeries pathSeries(String path) {
+        PathSeries series = pathSeries.get(path);
+        if (series == null) {
+            int groupEnd = path.indexOf('/', 1);
+            String route = groupEnd > 0 ? path.substring(0, groupEnd) : path;
+            RouteGroup routeGroup = routeGroups.get(route);
+            if (routeGroup == null) {
+                RouteGroup created = new RouteGroup(requestCount.labels(route));
+                routeGroup = routeGroups.putIfAbsent(route, created);
+                if (routeGroup == null) {
+                    routeGroup = created;
+                }
+            }
+            PathSeries created = new PathSeries(path, routeGroup);
+            series = pathSeries.putIfAbsent(path, created);
+            if (series == null) {
+                series = created;
+            }
+        }
+        return series;
+    }
+
+    private static final class RouteGroup {
+        private final Counter.Child requests;
+        private final ConcurrencyGauge concurrency;
+
+        private RouteGroup(Counter.Child requests) {
+            this.requests = requests;
+            this.concurrency = new ConcurrencyGauge();
+        }
+    }
+
+    /**
+     * Guarded series of one normalized path, kept with their admissions so that a request records
+     * its observations without building label keys. A series is looked up again once its admission
+     * expired, rejected combinations are not kept and go through the guard on each request.
+     */
+    private static final class PathSeries {
+        private final String path;
+        private final RouteGroup routeGroup;
+        private volatile Guarded<StripedHistogram.Child> duration;
+        private volatile Guarded<StripedHistogram.Child> asyncDuration;
+
+        /**
+         * Durations and response sizes by method and status class.
+         */
+        private final AtomicReferenceArray<Guarded<Summary.Child[]>> responses;
+
+        private PathSeries(String path, RouteGroup routeGroup) {
+            this.path = path;
+            this.routeGroup = routeGroup;
+            this.responses = new AtomicReferenceArray<>(HTTP_METHODS.length * STATUS_CLASSES.length);
+        }
+    }
+
+    private static final class Guarded<C> {
+        private final CardinalityGuard.Admission admission;
+        private final C series;
+
+        private Guarded(CardinalityGuard.Admission admission, C series) {
+            this.admission = admission;
+            this.series = series;
+        }
+    }
+
+    private StripedHistogram.Child duration(PathSeries series, boolean async) {
+        Guarded<StripedHistogram.Child> guarded = async ? series.asyncDuration : series.duration;
+        if (guarded != null && guarded.admission.use()) {
+            return guarded.series;
+        }
+
+        StripedHistogram collector = async ? requestAsyncDurationOnPath : requestDurationOnPath;
+        CardinalityGuard.Admission admission = guards.get(collector).admit(series.path);
+        if (admission == null) {
+            return collector.labels(CardinalityGuard.overflow(1));
+        }
+        guarded = new Guarded<>(admission, collector.labels(series.path));
+        if (async) {
+            series.asyncDuration = guarded;
+        } else {
+            series.duration = guarded;
+        }
+        return guarded.series;
+    }
+
+    private void recordResponse(PathSeries series, int method, int status, long elapsed, long size) {
+        int index = method * STATUS_CLASSES.length + status;
+        Guarded<Summary.Child[]> guarded = series.responses.get(index);
+        if (guarded == null || !guarded.admission.use()) {
+            String[] labelValues = {series.path, HTTP_METHODS[method], STATUS_CLASSES[status]};
+            CardinalityGuard.Admission admission = guards.get(requestDurationByStatus).admit(labelValues);
+            if (admission == null) {
+                labelValues = CardinalityGuard.overflow(labelValues.length);
+            }
+            guarded = new Guarded<>(admission, new Summary.Child[] {requestDurationByStatus.labels(labelValues), responseSize.labels(labelValues)});
+            if (admission != null) {
+                series.responses.set(index, guarded);
+            }
+        }
+        guarded.series[0].observe(elapsed / NANOSECONDS_PER_SECOND);
+        guarded.series[1].observe(size);
+    }
+
+    /**
+     * Details of the request are read only when it is slow enough to be kept.
+     */
+    private void trackSlow(HttpServletRequest request, String path, String user, long elapsed) {
+        long now = System.currentTimeMillis();
+        if (slowRequests.isCandidate(elapsed, now)) {
+            if (user == null) {
+                user = request.getRemoteUser();
+            }
+            slowRequests.offer(path, request.getRequestURI(), user != null ? user : "anonymous", elapsed, now);
+        }
+    }
+
+    private static int methodIndex(String method) {
+        for (int i = 0; i < OTHER_METHOD; i++) {
+            if (HTTP_METHODS[i].equals(method)) {
+                return i;
+            }
+        }
+        return OTHER_METHOD;
+    }
+
+    private static int statusIndex(int status) {
+        int statusClass = status / 100;
+        return statusClass >= 1 && statusClass < STATUS_CLASSES.length ? statusClass : 0;
+    }
+
+    /**
+     * Records an async request once, when its response is completed, timed out or failed.
+     */
+    private final class AsyncRequestListener implements AsyncListener {
+        private final HttpServletRequest request;
+        private final PathSeries series;
+        private final int method;
+        private final CountingResponseWrapper response;
+        private final boolean timed;
+        private final long start;
+        private final AtomicBoolean recorded;
+
+        private AsyncRequestListener(
+                HttpServletRequest request,
+                PathSeries series,
+                int method,
+                CountingResponseWrapper response,
+                boolean timed,
+                long start) {
+            this.request = request;
+            this.series = series;
+            this.method = method;
+            this.response = response;
+            this.timed = timed;
+            this.start = start;
+            this.recorded = new AtomicBoolean();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            record(statusIndex(response.getStatus()));
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            record(SERVER_ERROR);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            record(SERVER_ERROR);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // a new async cycle drops the listeners of the previous one
+            event.getAsyncContext().addListener(this);
+        }
+
+        private void record(int status) {
+            if (recorded.compareAndSet(false, true)) {
+                series.routeGroup.concurrency.exit();
+                if (timed) {
+                    long elapsed = System.nanoTime() - start;
+                    duration(series, true).observeNanos(elapsed);
+                    recordResponse(series, method, status, elapsed, response.getCount());
+                    // the user thread local is not set on the thread completing the response
+                    trackSlow(request, series.path, null, elapsed);
+                }
             }
         }
     }
@@ -251,39 +818,39 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
 
     @Override
     public void labelCreateCounter(String visibility, String prefix) {
-        labelCreateCounter.labels(visibility, prefix).inc();
+        guarded(labelCreateCounter, visibility, prefix).inc();
     }
 
     @Override
     public void labelRemoveCounter(String visibility, String prefix, String source, String spaceKey) {
-        labelRemoveCounter.labels(visibility, prefix, source, spaceKey).inc();
+        guarded(labelRemoveCounter, visibility, prefix, source, spaceKey).inc();
     }
 
     @Override
     public void labelAddCounter(String visibility, String prefix, String source, String spaceKey) {
-        labelAddCounter.labels(visibility, prefix, source, spaceKey).inc();
+        guarded(labelAddCounter, visibility, prefix, source, spaceKey).inc();
     }
 
     @Override
     public void labelDeleteCounter(String visibility, String prefix) {
-        labelDeleteCounter.labels(visibility, prefix).inc();
+        guarded(labelDeleteCounter, visibility, prefix).inc();
     }
 
     //--> Login/Logout
 
     @Override
     public void userLoginCounter(String username, String ip) {
-        userLoginCounter.labels(username, ip).inc();
+        guarded(userLoginCounter, username, ip).inc();
     }
 
     @Override
     public void userLogoutCounter(String username, String ip) {
-        userLogoutCounter.labels(username, ip).inc();
+        guarded(userLogoutCounter, username, ip).inc();
     }
 
     @Override
     public void userLoginFailedCounter(String username, String ip) {
-        userLoginFailedCounter.labels(username, ip).inc();
+        guarded(userLoginFailedCounter, username, ip).inc();
     }
 
     //--> Space
@@ -291,114 +858,337 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
 
     @Override
     public void spaceCreateCounter(String username) {
-        spaceCreateCounter.labels(username).inc();
+        guarded(spaceCreateCounter, username).inc();
     }
 
     @Override
     public void spaceDeleteCounter(String username) {
-        spaceDeleteCounter.labels(username).inc();
+        guarded(spaceDeleteCounter, username).inc();
     }
 
     //--> Plugins
 
     @Override
     public void pluginEnabledEvent(String pluginKey) {
-        pluginEnabledEvent.labels(pluginKey).inc();
+        guarded(pluginEnabledEvent, pluginKey).inc();
     }
 
     @Override
     public void pluginDisabledEvent(String pluginKey) {
-        pluginDisabledEvent.labels(pluginKey).inc();
+        guarded(pluginDisabledEvent, pluginKey).inc();
     }
 
     @Override
     public void pluginInstallEvent(String pluginKey) {
-        pluginInstallEvent.labels(pluginKey).inc();
+        guarded(pluginInstallEvent, pluginKey).inc();
     }
 
     @Override
     public void pluginUninstallEvent(String pluginKey) {
-        pluginUninstallEvent.labels(pluginKey).inc();
+        guarded(pluginUninstallEvent, pluginKey).inc();
     }
 
-    //--> Collect
+    //--> Exporter
 
-    private List<MetricFamilySamples> collectInternal() {
-        // resolve cluster metrics
-        totalClusterNodeGauge.set(clusterManager.getClusterInformation().getMemberCount());
+    @Override
+    public void setSeriesLimit(int limit) {
+        for (CardinalityGuard guard : guards.values()) {
+            guard.setLimit(limit);
+        }
+    }
 
-        // license
-        try {
-            ConfluenceLicense confluenceLicense = licenseService.retrieve();
-            maintenanceExpiryDaysGauge.set(confluenceLicense.getNumberOfDaysBeforeMaintenanceExpiry());
-            allowedUsersGauge.set(confluenceLicense.getMaximumNumberOfUsers());
-            licenseExpiryDaysGauge.set(confluenceLicense.getNumberOfDaysBeforeExpiry());
-        } catch (LicenseException ex) {
-            log.error("Cannot retrieve license", ex);
+    @Override
+    public void payloadSize(ExpositionFormat format, boolean gzip, long size) {
+        payloadSize.labels(format.name().toLowerCase(), gzip ? "gzip" : "identity").set(size);
+    }
+
+    /**
+     * Removes the series of the labelled collectors which were not updated within the series TTL.
+     */
+    private void expireIdleSeries() {
+        int seriesTtl = scrapingSettingsManager.getSeriesTtl();
+        if (seriesTtl <= 0) {
+            return;
         }
 
-        // users
-        activeUsersGauge.set(scheduledMetricEvaluator.getTotalUsers());
-        totalOneHourAgoActiveUsersGauge.set(scheduledMetricEvaluator.getTotalOneHourAgoActiveUsers());
-        totalTodayActiveUsers.set(scheduledMetricEvaluator.getTotalTodayActiveUsers());
+        long idleBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(seriesTtl);
+        int expired = 0;
+        for (CardinalityGuard guard : new HashSet<>(guards.values())) {
+            expired += guard.expire(idleBefore);
+        }
+        log.debug("Expired {} idle series", expired);
+    }
+
+    private <C> C guarded(SimpleCollector<C> collector, String... labelValues) {
+        return collector.labels(guards.get(collector).labels(labelValues));
+    }
 
-        // usage
-        totalCurrentContentGauge.set(scheduledMetricEvaluator.getTotalCurrentContent());
-        totalGlobalSpacesGauge.set(scheduledMetricEvaluator.getTotalGlobalSpaces());
-        totalPersonalSpacesGauge.set(scheduledMetricEvaluator.getTotalPersonalSpaces());
-        totalPagesGauge.set(scheduledMetricEvaluator.getTotalPages());
-        totalBlogPostsGauge.set(scheduledMetricEvaluator.getTotalBlogPosts());
+    /**
+     * Limits the series of the collectors, which share their label names and values.
+     */
+    private void guard(SimpleCollector<?>... collectors) {
+        String family = ((Describable) collectors[0]).describe().get(0).name;
+        CardinalityGuard guard = new CardinalityGuard(family, scrapingSettingsManager.getMaxSeriesPerFamily(), rejectedSeries, collectors);
+        for (SimpleCollector<?> collector : collectors) {
+            guards.put(collector, guard);
+        }
+    }
 
-        // attachment size
-        totalAttachmentSizeGauge.set(scheduledMetricEvaluator.getTotalAttachmentSize());
+    //--> Collect
 
-        // mail queue
-        ErrorQueuedTaskQueue mailQueue = (ErrorQueuedTaskQueue) taskManager.getTaskQueue("mail");
-        totalMailQueueGauge.set(mailQueue.size());
-        totalMailQueueErrorsGauge.set(mailQueue.getErrorQueue().size());
+    private List<MetricSection> createSections() {
+        List<MetricSection> result = new ArrayList<>();
+        result.addAll(jmxMetricEvaluator.sections());
+        result.add(new MetricSection("events", MetricGroup.REALTIME,
+                clusterPanicCounter,
+                labelCreateCounter,
+                labelRemoveCounter,
+                labelAddCounter,
+                labelDeleteCounter,
+                userLoginCounter,
+                userLogoutCounter,
+                userLoginFailedCounter,
+                pluginEnabledEvent,
+                pluginDisabledEvent,
+                pluginInstallEvent,
+                pluginUninstallEvent));
+        result.add(new MetricSection("requests", MetricGroup.REALTIME,
+                requestDurationOnPath,
+                requestAsyncDurationOnPath,
+                requestDurationByStatus,
+                responseSize,
+                requestsInFlight,
+                requestsInFlightMax,
+                requestCount,
+                requestSamplingFactorGauge,
+                slowRequestDuration) {
+            @Override
+            protected void refresh() {
+                for (Map.Entry<String, RouteGroup> entry : routeGroups.entrySet()) {
+                    requestsInFlight.labels(entry.getKey()).set(entry.getValue().concurrency.getCurrent());
+                    requestsInFlightMax.labels(entry.getKey()).set(entry.getValue().concurrency.getMax());
+                }
+                slowRequestDuration.clear();
+                int rank = 1;
+                for (SlowRequestTracker.SlowRequest slowRequest : slowRequests.getSlowRequests()) {
+                    slowRequestDuration.labels(String.valueOf(rank++), slowRequest.getPath()).set(slowRequest.getDurationNanos() / NANOSECONDS_PER_SECOND);
+                }
+            }
+        });
+        result.add(new SampledMetricSection("cluster", MetricGroup.INVENTORY,
+                CLUSTER_SAMPLE_INTERVAL_MS, CLUSTER_MAX_STALENESS_MS, totalClusterNodeGauge) {
+            @Override
+            protected void refresh() {
+                totalClusterNodeGauge.set(clusterManager.getClusterInformation().getMemberCount());
+            }
+        });
+        result.add(new SampledMetricSection("license", MetricGroup.LICENSE,
+                LICENSE_SAMPLE_INTERVAL_MS, LICENSE_MAX_STALENESS_MS, maintenanceExpiryDaysGauge, licenseExpiryDaysGauge, allowedUsersGauge) {
+            @Override
+            protected void refresh() throws LicenseException {
+                ConfluenceLicense confluenceLicense = licenseService.retrieve();
+                maintenanceExpiryDaysGauge.set(confluenceLicense.getNumberOfDaysBeforeMaintenanceExpiry());
+                allowedUsersGauge.set(confluenceLicense.getMaximumNumberOfUsers());
+                licenseExpiryDaysGauge.set(confluenceLicense.getNumberOfDaysBeforeExpiry());
+            }
+        });
+        result.add(new MetricSection("scheduled", MetricGroup.INVENTORY,
+                activeUsersGauge,
+                totalOneHourAgoActiveUsersGauge,
+                totalTodayActiveUsers,
+                totalCurrentContentGauge,
+                totalGlobalSpacesGauge,
+                totalPersonalSpacesGauge,
+                totalPagesGauge,
+                totalBlogPostsGauge) {
+            @Override
+            protected void refresh() {
+                // users
+                activeUsersGauge.set(scheduledMetricEvaluator.getTotalUsers());
+                totalOneHourAgoActiveUsersGauge.set(scheduledMetricEvaluator.getTotalOneHourAgoActiveUsers());
+                totalTodayActiveUsers.set(scheduledMetricEvaluator.getTotalTodayActiveUsers());
+
+                // usage
+                totalCurrentContentGauge.set(scheduledMetricEvaluator.getTotalCurrentContent());
+                totalGlobalSpacesGauge.set(scheduledMetricEvaluator.getTotalGlobalSpaces());
+                totalPersonalSpacesGauge.set(scheduledMetricEvaluator.getTotalPersonalSpaces());
+                totalPagesGauge.set(scheduledMetricEvaluator.getTotalPages());
+                totalBlogPostsGauge.set(scheduledMetricEvaluator.getTotalBlogPosts());
+            }
+        });
+        result.add(new MetricSection("attachments", MetricGroup.INVENTORY, totalAttachmentSizeGauge, attachmentSizeDriftGauge) {
+            @Override
+            protected void refresh() {
+                totalAttachmentSizeGauge.set(scheduledMetricEvaluator.getTotalAttachmentSize());
+                attachmentSizeDriftGauge.set(scheduledMetricEvaluator.getAttachmentSizeDrift());
+            }
 
-        // jvm uptime
-        jvmUptimeGauge.set(ManagementFactory.getRuntimeMXBean().getUptime());
+            @Override
+            protected void addSamples(MetricFilter filter, List<MetricFamilySamples> result) {
+                // until the first reconciliation the running total holds only the sizes of events
+                if (!scheduledMetricEvaluator.isAttachmentSizeReconciled()) {
+                    return;
+                }
+                if (!clusterManager.isClustered()) {
+                    super.addSamples(filter, result);
+                    return;
+                }
+                // nodes see no events of the others, the total is taken from the database only and has no drift
+                for (MetricFamilySamples metricFamilySamples : totalAttachmentSizeGauge.collect()) {
+                    if (filter.accept(metricFamilySamples.name)) {
+                        result.add(metricFamilySamples);
+                    }
+                }
+            }
+        });
+        // windows are shared by the nodes through the settings, so this is a cluster wide value
+        result.add(new MetricSection("users", MetricGroup.INVENTORY, uniqueActiveUsers) {
+            @Override
+            protected void refresh() {
+                for (RollingUniqueCounter.Window window : RollingUniqueCounter.Window.values()) {
+                    uniqueActiveUsers.labels(window.getLabel()).set(activeUserTracker.getActiveUsers(window));
+                }
+            }
+        });
+        result.add(new MetricSection("spaces", MetricGroup.INVENTORY, spacePages, spaceBlogPosts, spaceAttachmentSize) {
+            @Override
+            protected void refresh() {
+                spacePages.clear();
+                spaceBlogPosts.clear();
+                spaceAttachmentSize.clear();
+                for (SpaceUsage space : scheduledMetricEvaluator.getSpaceUsage()) {
+                    spacePages.labels(space.getSpaceKey()).set(space.getPages());
+                    spaceBlogPosts.labels(space.getSpaceKey()).set(space.getBlogPosts());
+                    spaceAttachmentSize.labels(space.getSpaceKey()).set(space.getAttachmentSize());
+                }
+            }
+        });
+        result.add(new SampledMetricSection("mail", MetricGroup.REALTIME,
+                MAIL_SAMPLE_INTERVAL_MS, MAIL_MAX_STALENESS_MS, totalMailQueueGauge, totalMailQueueErrorsGauge) {
+            @Override
+            protected void refresh() {
+                ErrorQueuedTaskQueue mailQueue = (ErrorQueuedTaskQueue) taskManager.getTaskQueue("mail");
+                totalMailQueueGauge.set(mailQueue.size());
+                totalMailQueueErrorsGauge.set(mailQueue.getErrorQueue().size());
+            }
+        });
+        result.add(new MetricSection("jvm", MetricGroup.JMX, jvmUptimeGauge) {
+            @Override
+            protected void refresh() {
+                jvmUptimeGauge.set(ManagementFactory.getRuntimeMXBean().getUptime());
+            }
+        });
+        // last, so that it reports the sections of the current collection
+        result.add(new MetricSection("exporter", MetricGroup.REALTIME, sectionDuration, sectionErrors, sectionLastSuccess, sectionValueAge, taskDuration, taskLastSuccess, rejectedSeries, liveSeries, payloadSize) {
+            @Override
+            protected void refresh() {
+                for (CardinalityGuard guard : guards.values()) {
+                    liveSeries.labels(guard.getFamily()).set(guard.size());
+                }
+                for (MetricSection section : sections) {
+                    if (section instanceof SampledMetricSection) {
+                        long age = ((SampledMetricSection) section).getAge();
+                        sectionValueAge.labels(section.getName()).set(age >= 0 ? age / MILLISECONDS_PER_SECOND : Double.NaN);
+                    }
+                }
+                for (ScheduledTask task : scheduledMetricEvaluator.getTasks()) {
+                    long duration = task.getLastDurationNanos();
+                    long lastSuccess = task.getLastSuccess();
+                    taskDuration.labels(task.getName()).set(duration >= 0 ? duration / NANOSECONDS_PER_SECOND : Double.NaN);
+                    taskLastSuccess.labels(task.getName()).set(lastSuccess >= 0 ? lastSuccess / MILLISECONDS_PER_SECOND : Double.NaN);
+                }
+            }
+        });
+        return result;
+    }
 
+    private List<MetricFamilySamples> collectInternal(MetricGroup group, MetricFilter filter) {
         List<MetricFamilySamples> result = new ArrayList<>();
-        result.addAll(jmxMetricEvaluator.metrics());
-        result.addAll(clusterPanicCounter.collect());
-        result.addAll(labelCreateCounter.collect());
-        result.addAll(labelRemoveCounter.collect());
-        result.addAll(labelAddCounter.collect());
-        result.addAll(labelDeleteCounter.collect());
-        result.addAll(userLoginCounter.collect());
-        result.addAll(userLogoutCounter.collect());
-        result.addAll(userLoginFailedCounter.collect());
-        result.addAll(requestDurationOnPath.collect());
-        result.addAll(totalClusterNodeGauge.collect());
-        result.addAll(maintenanceExpiryDaysGauge.collect());
-        result.addAll(licenseExpiryDaysGauge.collect());
-        result.addAll(allowedUsersGauge.collect());
-        result.addAll(activeUsersGauge.collect());
-        result.addAll(totalCurrentContentGauge.collect());
-        result.addAll(totalGlobalSpacesGauge.collect());
-        result.addAll(totalPersonalSpacesGauge.collect());
-        result.addAll(totalOneHourAgoActiveUsersGauge.collect());
-        result.addAll(totalTodayActiveUsers.collect());
-        result.addAll(totalAttachmentSizeGauge.collect());
-        result.addAll(totalPagesGauge.collect());
-        result.addAll(totalBlogPostsGauge.collect());
-        result.addAll(totalMailQueueGauge.collect());
-        result.addAll(totalMailQueueErrorsGauge.collect());
-        result.addAll(jvmUptimeGauge.collect());
-        result.addAll(pluginEnabledEvent.collect());
-        result.addAll(pluginDisabledEvent.collect());
-        result.addAll(pluginInstallEvent.collect());
-        result.addAll(pluginUninstallEvent.collect());
+        for (MetricSection section : sections) {
+            if ((group != null && section.getGroup() != group) || !section.isIncluded(filter)) {
+                continue;
+            }
+            if (section instanceof SampledMetricSection) {
+                // sampled sections are instrumented by the sampler, scrapes only read them
+                ((SampledMetricSection) section).collect(filter, result);
+                continue;
+            }
+
+            long start = System.nanoTime();
+            try {
+                section.collect(filter, result);
+                sectionLastSuccess.labels(section.getName()).setToCurrentTime();
+                if (unregisteredMBeanSections.remove(section.getName())) {
+                    log.info("MBean of metrics section {} is registered again", section.getName());
+                }
+            } catch (InstanceNotFoundException ex) {
+                // an instance without the MBean fails the same way on each scrape
+                sectionErrors.labels(section.getName()).inc();
+                if (unregisteredMBeanSections.add(section.getName())) {
+                    log.warn("MBean of metrics section {} is not registered, its values are not updated: {}", section.getName(), ex.getMessage());
+                } else {
+                    log.debug("MBean of metrics section {} is not registered", section.getName());
+                }
+            } catch (Exception ex) {
+                sectionErrors.labels(section.getName()).inc();
+                log.error("Cannot collect metrics section " + section.getName(), ex);
+            } finally {
+                sectionDuration.labels(section.getName()).observe((System.nanoTime() - start) / NANOSECONDS_PER_SECOND);
+            }
+        }
+        return result;
+    }
+
+    private void sample(SampledMetricSection section) {
+        long start = System.nanoTime();
+        try {
+            section.sample();
+            sectionLastSuccess.labels(section.getName()).setToCurrentTime();
+        } catch (Throwable th) {
+            sectionErrors.labels(section.getName()).inc();
+            log.error("Cannot sample metrics section " + section.getName(), th);
+        } finally {
+            sectionDuration.labels(section.getName()).observe((System.nanoTime() - start) / NANOSECONDS_PER_SECOND);
+        }
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+        List<MetricFamilySamples> result = new ArrayList<>();
+        for (MetricSection section : sections) {
+            section.describe(result);
+        }
+        result.add(new CounterMetricFamily(COALESCED_SCRAPE_COUNT, "Scrapes served from a concurrent collection", 0));
         return result;
     }
 
     @Override
     public List<MetricFamilySamples> collect() {
+        return collect(MetricFilter.ALL);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect(final MetricFilter filter) {
         long start = System.currentTimeMillis();
         try {
-            return collectInternal();
+            List<MetricFamilySamples> result;
+            if (filter.isAll()) {
+                result = new ArrayList<>(collectFlight.execute(new Callable<List<MetricFamilySamples>>() {
+                    @Override
+                    public List<MetricFamilySamples> call() {
+                        return collectInternal(null, filter);
+                    }
+                }));
+            } else {
+                result = collectInternal(null, filter);
+            }
+            if (filter.accept(COALESCED_SCRAPE_COUNT)) {
+                result.add(new CounterMetricFamily(
+                        COALESCED_SCRAPE_COUNT,
+                        "Scrapes served from a concurrent collection",
+                        collectFlight.getCoalesced()));
+            }
+            return result;
         } catch (Throwable throwable) {
             log.error("Error collect prometheus metrics", throwable);
             return emptyList();
@@ -407,15 +1197,144 @@ public class MetricCollectorImpl extends Collector implements MetricCollector, D
         }
     }
 
+    @Override
+    public Enumeration<MetricFamilySamples> filteredMetricFamilySamples(MetricFilter filter) {
+        if (filter.isAll()) {
+            return registry.metricFamilySamples();
+        }
+
+        // own families are collected only for the requested sections, the hotspot ones only when matched
+        List<MetricFamilySamples> result = collect(filter);
+        if (filter.acceptAny(jvmFamilyNames)) {
+            collectJvm(filter, result);
+        }
+        return enumeration(result);
+    }
+
+    private void collectJvm(MetricFilter filter, List<MetricFamilySamples> result) {
+        for (Collector collector : jvmCollectors) {
+            try {
+                for (MetricFamilySamples metricFamilySamples : collector.collect()) {
+                    if (filter.accept(metricFamilySamples.name)) {
+                        result.add(metricFamilySamples);
+                    }
+                }
+            } catch (Exception ex) {
+                log.error("Cannot collect JVM metrics of " + collector.getClass().getSimpleName(), ex);
+            }
+        }
+    }
+
+    @Override
+    public Enumeration<MetricFamilySamples> groupMetricFamilySamples(final MetricGroup group, MetricFilter filter) {
+        long start = System.currentTimeMillis();
+        List<MetricFamilySamples> result = new ArrayList<>();
+        try {
+            List<MetricFamilySamples> groupSamples = groupFlights.get(group).execute(new Callable<List<MetricFamilySamples>>() {
+                @Override
+                public List<MetricFamilySamples> call() {
+                    List<MetricFamilySamples> samples = collectInternal(group, MetricFilter.ALL);
+                    if (group == JVM_GROUP) {
+                        collectJvm(MetricFilter.ALL, samples);
+                    }
+                    return samples;
+                }
+            });
+            for (MetricFamilySamples metricFamilySamples : groupSamples) {
+                if (filter.accept(metricFamilySamples.name)) {
+                    result.add(metricFamilySamples);
+                }
+            }
+        } catch (Throwable throwable) {
+            log.error("Error collect prometheus metrics group " + group.getKey(), throwable);
+        } finally {
+            log.debug("Collect execution time of group {} is: {}ms", group.getKey(), System.currentTimeMillis() - start);
+        }
+        return enumeration(result);
+    }
+
+    @Override
+    public Set<String> getFamilyNames(MetricGroup group) {
+        Set<String> result = new HashSet<>();
+        for (MetricSection section : sections) {
+            if (section.getGroup() == group) {
+                result.addAll(section.getFamilyNames());
+            }
+        }
+        if (group == JVM_GROUP) {
+            result.addAll(jvmFamilyNames);
+        }
+        return result;
+    }
+
     @Override
     public void destroy() {
-        this.registry.unregister(this);
+        if (registered) {
+            this.registry.unregister(this);
+            registered = false;
+        }
+        for (Collector collector : jvmCollectors) {
+            this.registry.unregister(collector);
+        }
+        jvmCollectors.clear();
+        samplerService.shutdown();
+        try {
+            if (!samplerService.awaitTermination(1, TimeUnit.SECONDS)) {
+                samplerService.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            samplerService.shutdownNow();
+        }
     }
 
     @Override
     public void afterPropertiesSet() {
+        for (MetricSection section : sections) {
+            if (section instanceof SampledMetricSection) {
+                final SampledMetricSection sampledSection = (SampledMetricSection) section;
+                samplerService.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        sample(sampledSection);
+                    }
+                }, 0, sampledSection.getRefreshIntervalMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        samplerService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    expireIdleSeries();
+                } catch (Throwable th) {
+                    log.error("Error expire idle series", th);
+                }
+            }
+        }, SERIES_SWEEP_INTERVAL_MS, SERIES_SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
         this.registry.register(this);
-        DefaultExports.initialize();
+        registered = true;
+        registerJvmCollectors();
+    }
+
+    /**
+     * Registers the collectors of {@code DefaultExports} except MemoryAllocationExports, which
+     * attaches GC notification listeners that cannot be removed and would pin the plugin classloader.
+     */
+    private void registerJvmCollectors() {
+        jvmCollectors.add(new StandardExports());
+        jvmCollectors.add(new MemoryPoolsExports());
+        jvmCollectors.add(new BufferPoolsExports());
+        jvmCollectors.add(new GarbageCollectorExports());
+        jvmCollectors.add(new ThreadExports());
+        jvmCollectors.add(new ClassLoadingExports());
+        jvmCollectors.add(new VersionInfoExports());
+        Set<String> names = new HashSet<>();
+        for (Collector collector : jvmCollectors) {
+            this.registry.register(collector);
+            for (MetricFamilySamples metricFamilySamples : collector.collect()) {
+                names.add(metricFamilySamples.name);
+            }
+        }
+        jvmFamilyNames = unmodifiableSet(names);
     }
 
     @Override
@@ -0,0 +1,51 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scrape tiers selected by the group parameter. Each tier is collected on its own and its
+ * result is reused for the cache interval, so cheap tiers can be scraped far more often.
+ */
+public enum MetricGroup {
+    /**
+     * Event counters, request durations and the mail queue.
+     */
+    REALTIME("realtime", 0),
+    /**
+     * Confluence MBeans and JVM values.
+     */
+    JMX("jmx", 10),
+    /**
+     * Cluster size and values of the scheduled evaluator.
+     */
+    INVENTORY("inventory", 60),
+    /**
+     * License and maintenance expiry.
+     */
+    LICENSE("license", 300);
+
+    private final String key;
+    private final long cacheIntervalMillis;
+
+    MetricGroup(String key, int cacheIntervalSeconds) {
+        this.key = key;
+        this.cacheIntervalMillis = TimeUnit.SECONDS.toMillis(cacheIntervalSeconds);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getCacheIntervalMillis() {
+        return cacheIntervalMillis;
+    }
+
+    public static MetricGroup fromKey(String key) {
+        for (MetricGroup group : values()) {
+            if (group.key.equalsIgnoreCase(key)) {
+                return group;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,88 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
+
+import io.prometheus.client.Collector;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.MetricFilter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Group of metric families which are refreshed together from one source.
+ */
+public class MetricSection {
+    private final String name;
+    private final MetricGroup group;
+    private final List<Collector> collectors;
+    private final Set<String> familyNames;
+
+    public MetricSection(String name, MetricGroup group, Collector... collectors) {
+        this.name = name;
+        this.group = group;
+        this.collectors = Arrays.asList(collectors);
+        Set<String> names = new HashSet<>();
+        for (Collector collector : collectors) {
+            for (Collector.MetricFamilySamples metricFamilySamples : ((Collector.Describable) collector).describe()) {
+                names.add(metricFamilySamples.name);
+            }
+        }
+        this.familyNames = Collections.unmodifiableSet(names);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public MetricGroup getGroup() {
+        return group;
+    }
+
+    public Set<String> getFamilyNames() {
+        return familyNames;
+    }
+
+    public void describe(List<Collector.MetricFamilySamples> result) {
+        for (Collector collector : collectors) {
+            result.addAll(((Collector.Describable) collector).describe());
+        }
+    }
+
+    public boolean isIncluded(MetricFilter filter) {
+        return filter.acceptAny(familyNames);
+    }
+
+    /**
+     * Reads fresh values from the source into the collectors of the section.
+     */
+    protected void refresh() throws Exception {
+    }
+
+    /**
+     * Adds the samples of the section to the result. When the refresh fails, the last known values
+     * are still added and the failure is rethrown afterwards.
+     */
+    public synchronized void collect(MetricFilter filter, List<Collector.MetricFamilySamples> result) throws Exception {
+        Exception failure = null;
+        try {
+            refresh();
+        } catch (Exception ex) {
+            failure = ex;
+        }
+        addSamples(filter, result);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    protected void addSamples(MetricFilter filter, List<Collector.MetricFamilySamples> result) {
+        for (Collector collector : collectors) {
+            for (Collector.MetricFamilySamples metricFamilySamples : collector.collect()) {
+                if (filter.accept(metricFamilySamples.name)) {
+                    result.add(metricFamilySamples);
+                }
+            }
+        }
+    }
+}
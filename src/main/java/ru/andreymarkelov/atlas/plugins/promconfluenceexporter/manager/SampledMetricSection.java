@@ -0,0 +1,71 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
+
+import io.prometheus.client.Collector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.MetricFilter;
+
+import java.util.List;
+
+/**
+ * Section refreshed by a background sampler. Scrapes only read the last sampled values, which are
+ * dropped from the output once they are older than the staleness bound. Going stale is logged once,
+ * the age of the values is exported for alerting.
+ */
+public class SampledMetricSection extends MetricSection {
+    private static final Logger log = LoggerFactory.getLogger(SampledMetricSection.class);
+
+    private final long refreshIntervalMillis;
+    private final long maxStalenessMillis;
+
+    private volatile long lastSampled;
+    private volatile boolean stale;
+
+    public SampledMetricSection(
+            String name,
+            MetricGroup group,
+            long refreshIntervalMillis,
+            long maxStalenessMillis,
+            Collector... collectors) {
+        super(name, group, collectors);
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    public long getRefreshIntervalMillis() {
+        return refreshIntervalMillis;
+    }
+
+    /**
+     * Age of the sampled values in milliseconds, or -1 if the section was not sampled yet.
+     */
+    public long getAge() {
+        long last = lastSampled;
+        return last > 0 ? System.currentTimeMillis() - last : -1;
+    }
+
+    public synchronized void sample() throws Exception {
+        refresh();
+        lastSampled = System.currentTimeMillis();
+    }
+
+    @Override
+    public void collect(MetricFilter filter, List<Collector.MetricFamilySamples> result) {
+        long age = getAge();
+        if (age < 0) {
+            return;
+        }
+        if (age > maxStalenessMillis) {
+            if (!stale) {
+                stale = true;
+                log.warn("Values of section {} are stale for {}ms and left out until sampled again", getName(), age);
+            }
+            return;
+        }
+        if (stale) {
+            stale = false;
+            log.info("Values of section {} are sampled again", getName());
+        }
+        addSamples(filter, result);
+    }
+}
@@ -1,7 +1,15 @@
 package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
 
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.ScheduledTask;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.SpaceUsage;
+
+import java.util.List;
+
 public interface ScheduledMetricEvaluator {
     long getTotalAttachmentSize();
+    boolean isAttachmentSizeReconciled();
+    long getAttachmentSizeDrift();
+    void attachmentSizeChanged(long delta);
     int getTotalPages();
     int getTotalBlogPosts();
     int getTotalUsers();
@@ -10,6 +18,8 @@ public interface ScheduledMetricEvaluator {
     int getTotalCurrentContent();
     int getTotalGlobalSpaces();
     int getTotalPersonalSpaces();
+    List<SpaceUsage> getSpaceUsage();
     long getLastExecutionTimestamp();
+    List<ScheduledTask> getTasks();
     void restartScraping(int newDelay);
 }
@@ -1,5 +1,6 @@
 package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
 
+import com.atlassian.confluence.cluster.ClusterManager;
 import com.atlassian.confluence.security.login.LoginInfo;
 import com.atlassian.confluence.security.login.LoginManager;
 import com.atlassian.confluence.status.service.SystemInformationService;
@@ -17,14 +18,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.ScheduledTask;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.SpaceUsage;
 
 import javax.annotation.Nonnull;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLSyntaxErrorException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -34,32 +46,86 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import static java.lang.Thread.MIN_PRIORITY;
 import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.Executors.newScheduledThreadPool;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 
 public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, DisposableBean, InitializingBean {
     private static final Logger log = LoggerFactory.getLogger(ScheduledMetricEvaluator.class);
 
-    private static final String ATTACHMENT_SQL = "SELECT sum(LONGVAL) FROM CONTENTPROPERTIES cp JOIN CONTENT c ON cp.CONTENTID = c.CONTENTID WHERE c.CONTENTTYPE = 'ATTACHMENT' AND cp.PROPERTYNAME = 'FILESIZE'";
     private static final String ATTACHMENT_SQL_OLD = "SELECT sum(FILESIZE) FROM ATTACHMENTS";
     private static final String PAGE_SQL = "SELECT count(CONTENTID) FROM CONTENT WHERE CONTENTTYPE = 'PAGE' AND PREVVER IS NULL AND CONTENT_STATUS = 'current'";
     private static final String BLOGPOST_SQL = "SELECT count(CONTENTID) FROM CONTENT WHERE CONTENTTYPE = 'BLOGPOST' AND PREVVER IS NULL AND CONTENT_STATUS = 'current'";
+    private static final String LOGINS_SQL = "SELECT um.lower_username, li.SUCCESSDATE FROM LOGININFO li JOIN user_mapping um ON li.USERNAME = um.user_key WHERE li.SUCCESSDATE >= ?";
+    private static final String SPACE_USAGE_SQL = "SELECT s.SPACEKEY,"
+            + " count(CASE WHEN c.CONTENTTYPE = 'PAGE' THEN 1 END),"
+            + " count(CASE WHEN c.CONTENTTYPE = 'BLOGPOST' THEN 1 END),"
+            + " sum(cp.LONGVAL)"
+            + " FROM CONTENT c"
+            + " LEFT JOIN CONTENT container ON c.PAGEID = container.CONTENTID"
+            + " LEFT JOIN SPACES s ON s.SPACEID = coalesce(c.SPACEID, container.SPACEID)"
+            + " LEFT JOIN CONTENTPROPERTIES cp ON cp.CONTENTID = c.CONTENTID AND c.CONTENTTYPE = 'ATTACHMENT' AND cp.PROPERTYNAME = 'FILESIZE'"
+            + " WHERE c.CONTENTTYPE = 'ATTACHMENT' OR (c.CONTENTTYPE IN ('PAGE', 'BLOGPOST') AND c.PREVVER IS NULL AND c.CONTENT_STATUS = 'current')"
+            + " GROUP BY s.SPACEKEY";
+    private static final String ACTIVE_USERS_SQL = "SELECT count(CASE WHEN SUCCESSDATE >= ? THEN 1 END), count(CASE WHEN SUCCESSDATE >= ? THEN 1 END) FROM LOGININFO WHERE SUCCESSDATE >= ?";
 
     private static final String MISSED_ATTACHMENT_TABLE_VERSION = "5.7.0";
 
+    /**
+     * Age of the oldest logins seeding the active user windows, the length of the longest window.
+     */
+    private static final long SEED_LOGINS_MAX_AGE_MS = TimeUnit.DAYS.toMillis(30);
+
+    /**
+     * Intervals and timeouts of the tasks. The content task runs with the configured delay, the
+     * attachment size is kept up to date from events and reconciled with the database less often,
+     * together with the usage of spaces which comes from the same query. On a cluster the
+     * attachment size is the reconciled one only.
+     */
+    private static final int ATTACHMENTS_RECONCILE_DELAYS = 60;
+    private static final long ATTACHMENTS_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(15);
+    private static final long CONTENT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long USERS_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long USERS_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final long SESSIONS_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long SESSIONS_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long USAGE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long USAGE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final double TASK_JITTER = 0.1;
+
+    /**
+     * Spaces kept by attachment size and by content each, the others are summed up.
+     */
+    private static final int TOP_SPACES = 20;
+
+    /**
+     * One thread per task, so that a query running until its timeout delays no other task. The
+     * threads are idle apart from the short runs.
+     */
+    private static final int TASK_THREADS = 5;
+
     private final ScrapingSettingsManager scrapingSettingsManager;
     private final SessionFactory sessionFactory;
     private final LoginManager loginManager;
     private final UserAccessor userAccessor;
     private final UserChecker userChecker;
     private final SystemInformationService systemInformationService;
+    private final ActiveUserTracker activeUserTracker;
+    private final ClusterManager clusterManager;
 
     /**
-     * Scheduled executor to grab metrics.
+     * Scheduled executor to grab metrics, and the one to interrupt the tasks exceeding their timeout.
      */
     private final ScheduledExecutorService executorService;
+    private final ScheduledExecutorService watchdogService;
+
+    /**
+     * Guards starting and stopping the tasks, and the results of the attachments task, which are
+     * discarded once the task has been stopped.
+     */
     private final Lock lock;
 
     private final AtomicLong totalAttachmentSize;
+    private final AtomicLong attachmentSizeDrift;
     private final AtomicInteger totalPages;
     private final AtomicInteger totalBlogPosts;
     private final AtomicInteger totalUsers;
@@ -69,9 +135,25 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
     private final AtomicInteger totalGlobalSpaces;
     private final AtomicInteger totalPersonalSpaces;
 
-    private final AtomicLong lastExecutionTimestamp;
+    private volatile List<ScheduledTask> tasks;
+    private volatile List<SpaceUsage> spaceUsage;
 
-    private ScheduledFuture<?> scraper;
+    /**
+     * Delay in minutes the tasks were started with, guarded by the lock.
+     */
+    private int delay;
+
+    /**
+     * Set once the running total of attachment sizes has been read from the database, before that
+     * it holds only the sizes of events and its difference to the database is not a drift.
+     */
+    private volatile boolean attachmentSizeReconciled;
+
+    /**
+     * Set when the login info table cannot be queried in this database, active users are then
+     * counted user by user. Other failures fall back for one run only.
+     */
+    private volatile boolean activeUsersQueryUnsupported;
 
     public ScheduledMetricEvaluatorImpl(
             ScrapingSettingsManager scrapingSettingsManager,
@@ -79,14 +161,19 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
             LoginManager loginManager,
             UserAccessor userAccessor,
             UserChecker userChecker,
-            SystemInformationService systemInformationService) {
+            SystemInformationService systemInformationService,
+            ActiveUserTracker activeUserTracker,
+            ClusterManager clusterManager) {
         this.scrapingSettingsManager = scrapingSettingsManager;
         this.sessionFactory = sessionFactory;
         this.loginManager = loginManager;
         this.userAccessor = userAccessor;
         this.userChecker = userChecker;
         this.systemInformationService = systemInformationService;
+        this.activeUserTracker = activeUserTracker;
+        this.clusterManager = clusterManager;
         this.totalAttachmentSize = new AtomicLong(0);
+        this.attachmentSizeDrift = new AtomicLong(0);
         this.totalPages = new AtomicInteger(0);
         this.totalBlogPosts = new AtomicInteger(0);
         this.totalUsers = new AtomicInteger(0);
@@ -95,15 +182,18 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
         this.totalCurrentContent = new AtomicInteger(0);
         this.totalGlobalSpaces = new AtomicInteger(0);
         this.totalPersonalSpaces = new AtomicInteger(0);
-        this.lastExecutionTimestamp = new AtomicLong(-1);
-        this.executorService = newSingleThreadScheduledExecutor(new ThreadFactory() {
+        this.tasks = Collections.emptyList();
+        this.spaceUsage = Collections.emptyList();
+        ThreadFactory threadFactory = new ThreadFactory() {
             @Override
             public Thread newThread(@Nonnull Runnable r) {
                 Thread thread = defaultThreadFactory().newThread(r);
                 thread.setPriority(MIN_PRIORITY);
                 return thread;
             }
-        });
+        };
+        this.executorService = newScheduledThreadPool(TASK_THREADS, threadFactory);
+        this.watchdogService = newSingleThreadScheduledExecutor(threadFactory);
         this.lock = new ReentrantLock();
     }
 
@@ -112,6 +202,24 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
         return totalAttachmentSize.get();
     }
 
+    @Override
+    public boolean isAttachmentSizeReconciled() {
+        return attachmentSizeReconciled;
+    }
+
+    @Override
+    public long getAttachmentSizeDrift() {
+        return attachmentSizeDrift.get();
+    }
+
+    @Override
+    public void attachmentSizeChanged(long delta) {
+        // events are raised on the node of the change only, so on a cluster the total is the reconciled one
+        if (!clusterManager.isClustered()) {
+            totalAttachmentSize.addAndGet(delta);
+        }
+    }
+
     @Override
     public int getTotalPages() {
         return totalPages.get();
@@ -139,7 +247,16 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
 
     @Override
     public long getLastExecutionTimestamp() {
-        return lastExecutionTimestamp.get();
+        long lastExecutionTimestamp = -1;
+        for (ScheduledTask task : tasks) {
+            lastExecutionTimestamp = Math.max(lastExecutionTimestamp, task.getLastSuccess());
+        }
+        return lastExecutionTimestamp;
+    }
+
+    @Override
+    public List<ScheduledTask> getTasks() {
+        return tasks;
     }
 
     @Override
@@ -157,10 +274,19 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
         return totalPersonalSpaces.get();
     }
 
+    @Override
+    public List<SpaceUsage> getSpaceUsage() {
+        return spaceUsage;
+    }
+
     @Override
     public void restartScraping(final int newDelay) {
         lock.lock();
         try{
+            // runs which ignore the interrupt outlive a restart, which is therefore skipped when nothing changes
+            if (newDelay == delay) {
+                return;
+            }
             stopScraping();
             startScraping(newDelay);
         } finally {
@@ -169,9 +295,8 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
     }
 
     private void stopScraping() {
-        boolean success = scraper.cancel(true);
-        if (!success){
-            log.debug("Unable to cancel scraping, typically because it has already completed.");
+        for (ScheduledTask task : tasks) {
+            task.stop();
         }
     }
 
@@ -187,6 +312,8 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
 
     @Override
     public void destroy() {
+        stopScraping();
+        watchdogService.shutdownNow();
         executorService.shutdown();
         try {
             if (!executorService.awaitTermination(1, TimeUnit.SECONDS)) {
@@ -198,23 +325,153 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
     }
 
     private void startScraping(int delay) {
+        this.delay = delay;
         if (delay <= 0) {
+            tasks = Collections.emptyList();
             return;
         }
 
-        scraper = executorService.scheduleWithFixedDelay(new Runnable() {
+        List<ScheduledTask> scheduledTasks = new ArrayList<>();
+        ScheduledTask attachmentsTask = new ScheduledTask("attachments", TimeUnit.MINUTES.toMillis(delay) * ATTACHMENTS_RECONCILE_DELAYS, ATTACHMENTS_TIMEOUT_MS, TASK_JITTER, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return reconcileAttachmentsAndSpaces();
+            }
+        });
+        scheduledTasks.add(new ScheduledTask("content", TimeUnit.MINUTES.toMillis(delay), CONTENT_TIMEOUT_MS, TASK_JITTER, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return calculateContentCounts();
+            }
+        }));
+        scheduledTasks.add(new ScheduledTask("users", USERS_INTERVAL_MS, USERS_TIMEOUT_MS, TASK_JITTER, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return calculateTotalUsers();
+            }
+        }));
+        scheduledTasks.add(new ScheduledTask("sessions", SESSIONS_INTERVAL_MS, SESSIONS_TIMEOUT_MS, TASK_JITTER, new Callable<Boolean>() {
             @Override
-            public void run() {
-                calculateTotalUsers();
-                calculateTotalAttachmentSize();
-                calculateSessions();
-                calculateUsageInfo();
-                lastExecutionTimestamp.set(System.currentTimeMillis());
+            public Boolean call() {
+                boolean counted = calculateSessions();
+                return seedActiveUsers() && counted;
             }
-        }, 0, delay, TimeUnit.MINUTES);
+        }));
+        scheduledTasks.add(new ScheduledTask("usage", USAGE_INTERVAL_MS, USAGE_TIMEOUT_MS, TASK_JITTER, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return calculateUsageInfo();
+            }
+        }));
+        for (ScheduledTask task : scheduledTasks) {
+            task.start(executorService, watchdogService);
+        }
+        // the total attachment size is not exported before the first reconciliation, which runs at once
+        if (attachmentSizeReconciled) {
+            attachmentsTask.start(executorService, watchdogService);
+        } else {
+            attachmentsTask.start(executorService, watchdogService, 0);
+        }
+        scheduledTasks.add(0, attachmentsTask);
+        tasks = Collections.unmodifiableList(scheduledTasks);
     }
 
-    private void calculateSessions() {
+    private boolean calculateSessions() {
+        long oneHourAgo = System.currentTimeMillis() - 3600 * 1000;
+        long today = DateUtils.truncate(new Date(), Calendar.DAY_OF_MONTH).getTime();
+        if (!activeUsersQueryUnsupported && countActiveUsers(oneHourAgo, today)) {
+            return true;
+        }
+        return countActiveUsersByLoginInfo(oneHourAgo, today);
+    }
+
+    /**
+     * Counts both periods with one aggregate query over the login info table.
+     */
+    private boolean countActiveUsers(final long oneHourAgo, final long today) {
+        return inSession(new SqlCallback() {
+            @Override
+            public void execute(Connection connection, int queryTimeout) throws SQLException {
+                try (PreparedStatement statement = connection.prepareStatement(ACTIVE_USERS_SQL)) {
+                    statement.setQueryTimeout(queryTimeout);
+                    statement.setTimestamp(1, new Timestamp(oneHourAgo));
+                    statement.setTimestamp(2, new Timestamp(today));
+                    statement.setTimestamp(3, new Timestamp(Math.min(oneHourAgo, today)));
+                    try (ResultSet rs = statement.executeQuery()) {
+                        if (rs.next()) {
+                            totalOneHourAgoActiveUsers.set(rs.getInt(1));
+                            totalTodayActiveUsers.set(rs.getInt(2));
+                        }
+                    }
+                } catch (SQLException ex) {
+                    if (isSchemaError(ex)) {
+                        activeUsersQueryUnsupported = true;
+                        log.warn("Cannot query login info, active users are counted user by user");
+                    }
+                    throw ex;
+                }
+            }
+        });
+    }
+
+    /**
+     * Whether the statement failed for the schema or dialect of the database rather than for an
+     * outage or a timeout: syntax errors and missing tables or columns (SQLState class 42) and
+     * unsupported features.
+     */
+    static boolean isSchemaError(SQLException ex) {
+        String sqlState = ex.getSQLState();
+        return ex instanceof SQLSyntaxErrorException
+                || ex instanceof SQLFeatureNotSupportedException
+                || (sqlState != null && sqlState.startsWith("42"));
+    }
+
+    /**
+     * Seeds the active user windows with the last logins of users once, the windows are then fed
+     * by login events. Earlier logins of the same users are not known.
+     */
+    private boolean seedActiveUsers() {
+        if (activeUserTracker.isSeeded()) {
+            return true;
+        }
+        final long since = System.currentTimeMillis() - SEED_LOGINS_MAX_AGE_MS;
+        boolean seeded = !activeUsersQueryUnsupported && inSession(new SqlCallback() {
+            @Override
+            public void execute(Connection connection, int queryTimeout) throws SQLException {
+                try (PreparedStatement statement = connection.prepareStatement(LOGINS_SQL)) {
+                    statement.setQueryTimeout(queryTimeout);
+                    statement.setTimestamp(1, new Timestamp(since));
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            String username = rs.getString(1);
+                            Timestamp successDate = rs.getTimestamp(2);
+                            if (username != null && successDate != null) {
+                                activeUserTracker.userLogin(username, successDate.getTime());
+                            }
+                        }
+                    }
+                }
+            }
+        });
+        if (!seeded) {
+            try {
+                for (User user : userAccessor.getUsers()) {
+                    LoginInfo loginInfo = loginManager.getLoginInfo(user);
+                    Date lastSuccessfulLoginDate = loginInfo != null ? loginInfo.getLastSuccessfulLoginDate() : null;
+                    if (lastSuccessfulLoginDate != null && lastSuccessfulLoginDate.getTime() >= since) {
+                        activeUserTracker.userLogin(user.getName(), lastSuccessfulLoginDate.getTime());
+                    }
+                }
+            } catch (Exception ex) {
+                log.error("Error seed active users", ex);
+                return false;
+            }
+        }
+        activeUserTracker.setSeeded();
+        return true;
+    }
+
+    private boolean countActiveUsersByLoginInfo(long oneHourAgo, long today) {
         int oneHourAgoActiveUserCount = 0;
         int todayActiveUserCount = 0;
         try {
@@ -230,8 +487,6 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
                 }
 
                 long lastSuccessfulLoginTs = lastSuccessfulLoginDate.getTime();
-                long oneHourAgo = System.currentTimeMillis() - 3600 * 1000;
-                long today = DateUtils.truncate(new Date(), Calendar.DAY_OF_MONTH).getTime();
                 if (lastSuccessfulLoginTs >= oneHourAgo) {
                     oneHourAgoActiveUserCount++;
                 }
@@ -241,72 +496,143 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
             }
         } catch (Exception ex) {
             log.error("Error calculate user sessions", ex);
+            return false;
         }
         totalOneHourAgoActiveUsers.set(oneHourAgoActiveUserCount);
         totalTodayActiveUsers.set(todayActiveUserCount);
+        return true;
     }
 
-    private void calculateTotalUsers() {
+    private boolean calculateTotalUsers() {
         try {
             Integer numberOfRegisteredUsers = userChecker.getNumberOfRegisteredUsers();
             if (numberOfRegisteredUsers.intValue() != -1) {
                 totalUsers.set(numberOfRegisteredUsers);
-            } else {
-                log.warn("userChecker.getNumberOfRegisteredUsers() returned -1");
+                return true;
             }
+            log.warn("userChecker.getNumberOfRegisteredUsers() returned -1");
         } catch (Throwable th) {
             log.error("Cannot get list users with access", th);
         }
+        return false;
     }
 
     /**
      * Calculate usage information.
      */
-    private void calculateUsageInfo() {
+    private boolean calculateUsageInfo() {
         try {
             UsageInfo usageInfo = systemInformationService.getUsageInfo();
             if (usageInfo != null) {
                 totalCurrentContent.set(usageInfo.getCurrentContent());
                 totalGlobalSpaces.set(usageInfo.getGlobalSpaces());
                 totalPersonalSpaces.set(usageInfo.getPersonalSpaces());
+                return true;
             }
         } catch (Exception ex) {
             log.error("Error read usage info", ex);
         }
+        return false;
     }
 
-    private void calculateTotalAttachmentSize() {
-        Session session = null;
-        Transaction transaction = null;
-        try {
-            session = sessionFactory.openSession();
-            transaction = session.beginTransaction();
-            try (Statement statement = session.connection().createStatement()) {
-                try (ResultSet rs = statement.executeQuery(ATTACHMENT_SQL)) {
-                    if (rs.next()) {
-                        Long value = rs.getLong(1);
-                        if (rs.wasNull() && MISSED_ATTACHMENT_TABLE_VERSION.compareTo(GeneralUtil.getVersionNumber()) > 0) {
-                            try (ResultSet rs2 = statement.executeQuery(ATTACHMENT_SQL_OLD)) {
-                                if (rs2.next()) {
-                                    totalAttachmentSize.set(rs2.getLong(1));
-                                }
+    /**
+     * Counts content and sums attachment sizes of all spaces with one grouped query, and replaces
+     * the running total of attachment sizes with the sum over all of them, so both come from the
+     * same snapshot. Attachments outside of spaces, such as profile pictures, count into the total
+     * only. Attachments count with all their versions. The results of a run outliving the restart
+     * of the tasks are discarded, the run of the new task reconciles in its place.
+     */
+    private boolean reconcileAttachmentsAndSpaces() {
+        return inSession(new SqlCallback() {
+            @Override
+            public void execute(Connection connection, int queryTimeout) throws SQLException {
+                try (Statement statement = connection.createStatement()) {
+                    statement.setQueryTimeout(queryTimeout);
+                    List<SpaceUsage> spaces = new ArrayList<>();
+                    long attachmentSize = 0;
+                    boolean attachmentSizeFound = false;
+                    try (ResultSet rs = statement.executeQuery(SPACE_USAGE_SQL)) {
+                        while (rs.next()) {
+                            String spaceKey = rs.getString(1);
+                            int pages = rs.getInt(2);
+                            int blogPosts = rs.getInt(3);
+                            long spaceAttachmentSize = rs.getLong(4);
+                            attachmentSizeFound |= !rs.wasNull();
+                            attachmentSize += spaceAttachmentSize;
+                            if (spaceKey != null) {
+                                spaces.add(new SpaceUsage(spaceKey, pages, blogPosts, spaceAttachmentSize));
                             }
-                        } else {
-                            totalAttachmentSize.set(value);
                         }
                     }
-                }
-                try (ResultSet rs = statement.executeQuery(PAGE_SQL)) {
-                    if (rs.next()) {
-                        totalPages.set(rs.getInt(1));
+                    if (!attachmentSizeFound && MISSED_ATTACHMENT_TABLE_VERSION.compareTo(GeneralUtil.getVersionNumber()) > 0) {
+                        try (ResultSet rs = statement.executeQuery(ATTACHMENT_SQL_OLD)) {
+                            if (rs.next()) {
+                                attachmentSize = rs.getLong(1);
+                            }
+                        }
+                    }
+                    lock.lock();
+                    try {
+                        if (ScheduledTask.isStopped()) {
+                            log.debug("Attachments task was stopped, its reconciliation is discarded");
+                            return;
+                        }
+                        reconcileTotalAttachmentSize(attachmentSize);
+                        spaceUsage = SpaceUsage.rollUp(spaces, TOP_SPACES);
+                    } finally {
+                        lock.unlock();
                     }
                 }
-                try (ResultSet rs = statement.executeQuery(BLOGPOST_SQL)) {
-                    if (rs.next()) {
-                        totalBlogPosts.set(rs.getInt(1));
+            }
+        });
+    }
+
+    private void reconcileTotalAttachmentSize(long value) {
+        // events applied while the query ran may be counted twice or missed, until the next reconciliation
+        long runningTotal = totalAttachmentSize.getAndSet(value);
+        if (attachmentSizeReconciled) {
+            attachmentSizeDrift.set(runningTotal - value);
+        }
+        attachmentSizeReconciled = true;
+    }
+
+    private boolean calculateContentCounts() {
+        return inSession(new SqlCallback() {
+            @Override
+            public void execute(Connection connection, int queryTimeout) throws SQLException {
+                try (Statement statement = connection.createStatement()) {
+                    statement.setQueryTimeout(queryTimeout);
+                    try (ResultSet rs = statement.executeQuery(PAGE_SQL)) {
+                        if (rs.next()) {
+                            totalPages.set(rs.getInt(1));
+                        }
+                    }
+                    try (ResultSet rs = statement.executeQuery(BLOGPOST_SQL)) {
+                        if (rs.next()) {
+                            totalBlogPosts.set(rs.getInt(1));
+                        }
                     }
                 }
             }
+        });
+    }
+
+    /**
+     * Runs the callback on the connection of a new hibernate session within a transaction, which is
+     * rolled back when the callback fails. Returns whether the callback succeeded. Statements are
+     * bounded by the timeout of the task run, JDBC drivers do not react to its interrupt.
+     */
+    private boolean inSession(SqlCallback callback) {
+        long remainingMillis = ScheduledTask.remainingMillis();
+        int queryTimeout = remainingMillis < 0 ? 0 : (int) Math.min(Math.max(TimeUnit.MILLISECONDS.toSeconds(remainingMillis + 999), 1), Integer.MAX_VALUE);
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = sessionFactory.openSession();
+            transaction = session.beginTransaction();
+            callback.execute(session.connection(), queryTimeout);
+            transaction.commit();
+            return true;
         } catch (Throwable th) {
             if (transaction != null) {
                 try {
@@ -316,15 +642,8 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
                 }
             }
             log.error("Error execute SQL", th);
+            return false;
         } finally {
-            if (transaction != null) {
-                try {
-                    transaction.commit();
-                } catch (HibernateException ex) {
-                    log.error("Error commit hibernate transaction", ex);
-                }
-            }
-
             if (session != null) {
                 try {
                     session.close();
@@ -334,4 +653,11 @@ public class ScheduledMetricEvaluatorImpl implements ScheduledMetricEvaluator, D
             }
         }
     }
+
+    private interface SqlCallback {
+        /**
+         * @param queryTimeout seconds left of the task run, to be set on each statement, or 0
+         */
+        void execute(Connection connection, int queryTimeout) throws SQLException;
+    }
 }
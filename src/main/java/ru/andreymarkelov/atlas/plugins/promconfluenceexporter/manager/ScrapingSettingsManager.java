@@ -6,6 +6,24 @@ public interface ScrapingSettingsManager {
     int getDelay();
     void setDelay(int delay);
 
+    int getCacheInterval();
+    void setCacheInterval(int cacheInterval);
+
+    int getCacheMaxStaleness();
+    void setCacheMaxStaleness(int cacheMaxStaleness);
+
+    int getMaxSeriesPerFamily();
+    void setMaxSeriesPerFamily(int maxSeriesPerFamily);
+
+    int getSeriesTtl();
+    void setSeriesTtl(int seriesTtl);
+
+    int getRequestSamplingFactor();
+    void setRequestSamplingFactor(int requestSamplingFactor);
+
+    boolean isClusterAggregation();
+    void setClusterAggregation(boolean clusterAggregation);
+
     List<String> getDurationPaths();
     void setDurationPaths(List<String> durationPaths);
 }
@@ -1,5 +1,7 @@
 package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
@@ -9,6 +11,19 @@ import static org.apache.commons.lang3.math.NumberUtils.toInt;
 
 public class ScrapingSettingsManagerImpl implements ScrapingSettingsManager {
     private static final int DEFAULT_SCRAPE_DELAY = 1;
+    private static final int DEFAULT_CACHE_INTERVAL = 0;
+    private static final int DEFAULT_CACHE_MAX_STALENESS = 60;
+    private static final int DEFAULT_MAX_SERIES_PER_FAMILY = 1000;
+    private static final int DEFAULT_SERIES_TTL = 0;
+    private static final int DEFAULT_REQUEST_SAMPLING_FACTOR = 1;
+    private static final List<String> DEFAULT_DURATION_PATHS = Arrays.asList(
+            "-/s/",
+            "-/download/resources/",
+            "-/download/batch/",
+            "-/images/",
+            "-/styles/",
+            "-/includes/",
+            "-/favicon.ico");
 
     private final PluginSettings pluginSettings;
 
@@ -28,13 +43,81 @@ public class ScrapingSettingsManagerImpl implements ScrapingSettingsManager {
     }
 
     @Override
+    public int getCacheInterval() {
+        Object storedValue = getPluginSettings().get("cacheInterval");
+        return storedValue != null ? toInt(storedValue.toString(), DEFAULT_CACHE_INTERVAL) : DEFAULT_CACHE_INTERVAL;
+    }
+
+    @Override
+    public void setCacheInterval(int cacheInterval) {
+        getPluginSettings().put("cacheInterval", String.valueOf(cacheInterval));
+    }
+
+    @Override
+    public int getCacheMaxStaleness() {
+        Object storedValue = getPluginSettings().get("cacheMaxStaleness");
+        return storedValue != null ? toInt(storedValue.toString(), DEFAULT_CACHE_MAX_STALENESS) : DEFAULT_CACHE_MAX_STALENESS;
+    }
+
+    @Override
+    public void setCacheMaxStaleness(int cacheMaxStaleness) {
+        getPluginSettings().put("cacheMaxStaleness", String.valueOf(cacheMaxStaleness));
+    }
+
+    @Override
+    public int getMaxSeriesPerFamily() {
+        Object storedValue = getPluginSettings().get("maxSeriesPerFamily");
+        return storedValue != null ? toInt(storedValue.toString(), DEFAULT_MAX_SERIES_PER_FAMILY) : DEFAULT_MAX_SERIES_PER_FAMILY;
+    }
+
+    @Override
+    public void setMaxSeriesPerFamily(int maxSeriesPerFamily) {
+        getPluginSettings().put("maxSeriesPerFamily", String.valueOf(maxSeriesPerFamily));
+    }
+
+    @Override
+    public int getSeriesTtl() {
+        Object storedValue = getPluginSettings().get("seriesTtl");
+        return storedValue != null ? toInt(storedValue.toString(), DEFAULT_SERIES_TTL) : DEFAULT_SERIES_TTL;
+    }
+
+    @Override
+    public void setSeriesTtl(int seriesTtl) {
+        getPluginSettings().put("seriesTtl", String.valueOf(seriesTtl));
+    }
+
+    @Override
+    public int getRequestSamplingFactor() {
+        Object storedValue = getPluginSettings().get("requestSamplingFactor");
+        return storedValue != null ? toInt(storedValue.toString(), DEFAULT_REQUEST_SAMPLING_FACTOR) : DEFAULT_REQUEST_SAMPLING_FACTOR;
+    }
+
+    @Override
+    public void setRequestSamplingFactor(int requestSamplingFactor) {
+        getPluginSettings().put("requestSamplingFactor", String.valueOf(requestSamplingFactor));
+    }
+
+    @Override
+    public boolean isClusterAggregation() {
+        Object storedValue = getPluginSettings().get("clusterAggregation");
+        return storedValue != null && Boolean.parseBoolean(storedValue.toString());
+    }
+
+    @Override
+    public void setClusterAggregation(boolean clusterAggregation) {
+        getPluginSettings().put("clusterAggregation", String.valueOf(clusterAggregation));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
     public List<String> getDurationPaths() {
-        return null;
+        Object storedValue = getPluginSettings().get("durationPaths");
+        return storedValue instanceof List ? new ArrayList<>((List<String>) storedValue) : DEFAULT_DURATION_PATHS;
     }
 
     @Override
     public void setDurationPaths(List<String> durationPaths) {
-
+        getPluginSettings().put("durationPaths", new ArrayList<>(durationPaths));
     }
 
     private synchronized PluginSettings getPluginSettings() {
@@ -1,6 +1,7 @@
 package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.servlet;
 
 import java.io.IOException;
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -8,22 +9,87 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
-import com.atlassian.sal.api.ApplicationProperties;
-import com.atlassian.sal.api.UrlMode;
 import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.MetricCollector;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.CountingResponseWrapper;
 import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.ExceptionRunnable;
-
-import static org.apache.commons.lang3.StringUtils.removeStart;
-import static org.apache.commons.lang3.StringUtils.startsWith;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.RouteNormalizer;
 
 public class AllEndpointFilter implements Filter {
+    /**
+     * Marks a request already instrumented, so that its forward and error dispatches are not counted again.
+     */
+    private static final String INSTRUMENTED_ATTRIBUTE = AllEndpointFilter.class.getName() + ".instrumented";
+
+    /**
+     * Known Confluence routes, everything else is reported as "other".
+     */
+    static final RouteNormalizer ROUTES = RouteNormalizer.compile(
+            "/",
+            "/index.action",
+            "/dashboard.action",
+            "/homepage.action",
+            "/login.action",
+            "/dologin.action",
+            "/logout.action",
+            "/dosearchsite.action",
+            "/display/{space}",
+            "/display/{space}/{page}",
+            "/display/{space}/{year}/{month}/{day}/{post}",
+            "/display/*",
+            "/x/{tinyurl}",
+            "/pages/viewpage.action",
+            "/pages/viewpageattachments.action",
+            "/pages/viewinfo.action",
+            "/pages/viewpreviousversions.action",
+            "/pages/diffpagesbyversion.action",
+            "/pages/editpage.action",
+            "/pages/doeditpage.action",
+            "/pages/createpage.action",
+            "/pages/docreatepage.action",
+            "/pages/resumedraft.action",
+            "/pages/*",
+            "/spaces/viewspace.action",
+            "/spaces/*",
+            "/download/attachments/{page}/{file}",
+            "/download/thumbnails/{page}/{file}",
+            "/download/*",
+            "/rest/api/content",
+            "/rest/api/content/search",
+            "/rest/api/content/{id}",
+            "/rest/api/content/{id}/child",
+            "/rest/api/content/{id}/child/{type}",
+            "/rest/api/content/{id}/history",
+            "/rest/api/content/{id}/label",
+            "/rest/api/space",
+            "/rest/api/space/{key}",
+            "/rest/api/space/{key}/content",
+            "/rest/api/search",
+            "/rest/api/user",
+            "/rest/api/user/current",
+            "/rest/api/group",
+            "/rest/api/*",
+            "/rest/*",
+            "/json/*",
+            "/rpc/*",
+            "/plugins/servlet/*",
+            "/plugins/*",
+            "/admin/*",
+            "/users/*",
+            "/labels/*",
+            "/search/*",
+            "/synchrony/*",
+            "/s/*",
+            "/images/*",
+            "/includes/*",
+            "/styles/*",
+            "/status");
+
     private final MetricCollector metricCollector;
-    private final ApplicationProperties applicationProperties;
 
-    public AllEndpointFilter(MetricCollector metricCollector, ApplicationProperties applicationProperties) {
+    public AllEndpointFilter(MetricCollector metricCollector) {
         this.metricCollector = metricCollector;
-        this.applicationProperties = applicationProperties;
     }
 
     @Override
@@ -31,17 +97,31 @@ public class AllEndpointFilter implements Filter {
             final ServletRequest servletRequest,
             final ServletResponse servletResponse,
             final FilterChain filterChain) throws IOException, ServletException {
-        if (!(servletRequest instanceof HttpServletRequest)) {
+        if (!(servletRequest instanceof HttpServletRequest) || !(servletResponse instanceof HttpServletResponse)) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        HttpServletRequest httpServletRequest = (HttpServletRequest) servletRequest;
+        if (httpServletRequest.getDispatcherType() != DispatcherType.REQUEST && httpServletRequest.getAttribute(INSTRUMENTED_ATTRIBUTE) != null) {
             filterChain.doFilter(servletRequest, servletResponse);
             return;
         }
 
-        String path = removeStart(((HttpServletRequest) servletRequest).getRequestURI(), applicationProperties.getBaseUrl(UrlMode.RELATIVE));
-        path = processDummyCases(path); // process known dummy cases
-        metricCollector.requestDuration(getComponents(path, 1), new ExceptionRunnable() {
+        String uri = httpServletRequest.getRequestURI();
+        String contextPath = httpServletRequest.getContextPath();
+        int offset = (uri != null && contextPath != null && uri.startsWith(contextPath)) ? contextPath.length() : 0;
+        if (!metricCollector.isInstrumented(uri, offset)) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        httpServletRequest.setAttribute(INSTRUMENTED_ATTRIBUTE, Boolean.TRUE);
+        final CountingResponseWrapper response = new CountingResponseWrapper((HttpServletResponse) servletResponse);
+        metricCollector.requestDuration(httpServletRequest, ROUTES.normalize(uri, offset), response, new ExceptionRunnable() {
             @Override
             public void run() throws IOException, ServletException {
-                filterChain.doFilter(servletRequest, servletResponse);
+                filterChain.doFilter(servletRequest, response);
             }
         });
     }
@@ -53,28 +133,4 @@ public class AllEndpointFilter implements Filter {
     @Override
     public void destroy() {
     }
-
-    private static String getComponents(String str, int pathComponents) {
-        if (str == null || pathComponents < 1) {
-            return str;
-        }
-
-        int count = 0;
-        int i =  -1;
-        do {
-            i = str.indexOf("/", i + 1);
-            if (i < 0) {
-                return str;
-            }
-            count++;
-        } while (count <= pathComponents);
-        return (i >= pathComponents) ? str.substring(0, i) : null;
-    }
-
-    private String processDummyCases(String path) {
-        if (startsWith(path, "/login.action;jsessionid=")) {
-            return "/login.action";
-        }
-        return path;
-    }
 }
@@ -1,30 +1,51 @@
 package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.servlet;
 
-import io.prometheus.client.exporter.common.TextFormat;
+import io.prometheus.client.Collector;
 import org.apache.commons.lang3.StringUtils;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.ClusterMetricAggregator;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.ExpositionCache;
 import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.MetricCollector;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.MetricGroup;
 import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.SecureTokenManager;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.CountingOutputStream;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.DeflaterPool;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.Exposition;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.ExpositionFormat;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.GzipOutputStream;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.MetricFilter;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.zip.Deflater;
 
 public class PrometheusExporter extends HttpServlet {
     private final MetricCollector metricCollector;
     private final SecureTokenManager secureTokenManager;
+    private final ExpositionCache expositionCache;
+    private final ClusterMetricAggregator clusterMetricAggregator;
+    private final DeflaterPool deflaterPool;
 
     public PrometheusExporter(
             MetricCollector metricCollector,
-            SecureTokenManager secureTokenManager) {
+            SecureTokenManager secureTokenManager,
+            ExpositionCache expositionCache,
+            ClusterMetricAggregator clusterMetricAggregator) {
         this.metricCollector = metricCollector;
         this.secureTokenManager = secureTokenManager;
+        this.expositionCache = expositionCache;
+        this.clusterMetricAggregator = clusterMetricAggregator;
+        this.deflaterPool = new DeflaterPool(4, Deflater.BEST_SPEED);
     }
 
     @Override
@@ -39,13 +60,51 @@ public class PrometheusExporter extends HttpServlet {
             return;
         }
 
+        ExpositionFormat format = ExpositionFormat.negotiate(httpServletRequest.getHeader("Accept"));
+        boolean gzip = acceptsGzip(httpServletRequest.getHeader("Accept-Encoding"));
+        httpServletResponse.setHeader("Vary", "Accept, Accept-Encoding");
+
+        MetricGroup group = null;
+        String groupParam = httpServletRequest.getParameter("group");
+        if (StringUtils.isNotBlank(groupParam)) {
+            group = MetricGroup.fromKey(groupParam);
+            if (group == null) {
+                httpServletResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown metric group");
+                return;
+            }
+        }
+
+        boolean cluster = "cluster".equals(httpServletRequest.getParameter("scope"));
+        if (cluster && (group != null || !clusterMetricAggregator.isEnabled())) {
+            httpServletResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "Cluster scope is not available");
+            return;
+        }
+
+        MetricFilter filter = MetricFilter.of(parse(httpServletRequest));
+        if (!cluster && group == null && filter.isAll() && expositionCache.isEnabled()) {
+            writeCached(httpServletRequest, httpServletResponse, expositionCache.get(), format, gzip);
+            return;
+        }
+
         httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-        httpServletResponse.setContentType(TextFormat.CONTENT_TYPE_004);
+        httpServletResponse.setContentType(format.getContentType());
+        if (gzip) {
+            httpServletResponse.setHeader("Content-Encoding", "gzip");
+        }
 
-        try (Writer writer = httpServletResponse.getWriter()) {
-            TextFormat.write004(writer, metricCollector.getRegistry().filteredMetricFamilySamples(parse(httpServletRequest)));
-            writer.flush();
+        CountingOutputStream countingOutputStream = new CountingOutputStream(httpServletResponse.getOutputStream());
+        OutputStream outputStream = gzip ? new GzipOutputStream(countingOutputStream, deflaterPool) : countingOutputStream;
+        try (OutputStream out = outputStream) {
+            if (cluster) {
+                format.write(out, clusterMetricFamilySamples(filter));
+            } else if (group != null) {
+                format.write(out, metricCollector.groupMetricFamilySamples(group, filter));
+            } else {
+                format.write(out, metricCollector.filteredMetricFamilySamples(filter));
+            }
+            out.flush();
         }
+        metricCollector.payloadSize(format, gzip, countingOutputStream.getCount());
     }
 
     @Override
@@ -53,6 +112,64 @@ public class PrometheusExporter extends HttpServlet {
         doGet(httpServletRequest, httpServletResponse);
     }
 
+    @Override
+    public void destroy() {
+        deflaterPool.close();
+        super.destroy();
+    }
+
+    private void writeCached(
+            HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse,
+            Exposition exposition,
+            ExpositionFormat format,
+            boolean gzip) throws IOException {
+        String etag = exposition.getEtag(format, gzip);
+        httpServletResponse.setHeader("ETag", etag);
+        httpServletResponse.setDateHeader("Last-Modified", exposition.getTimestamp());
+        if (etag.equals(httpServletRequest.getHeader("If-None-Match"))) {
+            httpServletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        byte[] payload = exposition.getPayload(format, gzip, deflaterPool);
+        httpServletResponse.setStatus(HttpServletResponse.SC_OK);
+        httpServletResponse.setContentType(format.getContentType());
+        if (gzip) {
+            httpServletResponse.setHeader("Content-Encoding", "gzip");
+        }
+        httpServletResponse.setContentLength(payload.length);
+
+        try (OutputStream outputStream = httpServletResponse.getOutputStream()) {
+            outputStream.write(payload);
+            outputStream.flush();
+        }
+        metricCollector.payloadSize(format, gzip, payload.length);
+    }
+
+    private Enumeration<Collector.MetricFamilySamples> clusterMetricFamilySamples(MetricFilter filter) {
+        List<Collector.MetricFamilySamples> result = new ArrayList<>();
+        for (Collector.MetricFamilySamples metricFamilySamples : clusterMetricAggregator.aggregate()) {
+            if (filter.accept(metricFamilySamples.name)) {
+                result.add(metricFamilySamples);
+            }
+        }
+        return Collections.enumeration(result);
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String encoding : StringUtils.split(acceptEncoding, ',')) {
+            String[] parts = StringUtils.split(encoding, ';');
+            if (parts.length > 0 && "gzip".equalsIgnoreCase(parts[0].trim())) {
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
     private Set<String> parse(HttpServletRequest httpServletRequest) {
         String[] includedParam = httpServletRequest.getParameterValues("name[]");
         if (includedParam == null) {
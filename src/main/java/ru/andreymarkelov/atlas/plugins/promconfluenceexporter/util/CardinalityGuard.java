@@ -0,0 +1,154 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.SimpleCollector;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of label value combinations of one metric family. Combinations seen before the
+ * limit is reached are passed through, new ones beyond it are folded into a single series with all
+ * labels set to {@link #OTHER} and counted as rejected. Each admitted combination is marked when
+ * used, so that idle ones can be expired together with their series.
+ */
+public class CardinalityGuard {
+    public static final String OTHER = "__other__";
+
+    private final String family;
+    private final Counter rejected;
+    private final List<SimpleCollector<?>> collectors;
+    private final ConcurrentMap<List<String>, Admission> admitted;
+    private final AtomicInteger size;
+
+    private volatile int limit;
+
+    /**
+     * Guards the given collectors, which are all labelled by the same label names.
+     */
+    public CardinalityGuard(String family, int limit, Counter rejected, SimpleCollector<?>... collectors) {
+        this.family = family;
+        this.rejected = rejected;
+        this.collectors = Arrays.asList(collectors);
+        this.admitted = new ConcurrentHashMap<>();
+        this.size = new AtomicInteger();
+        this.limit = limit;
+    }
+
+    public String getFamily() {
+        return family;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the label values to record the observation under.
+     */
+    public String[] labels(String... labelValues) {
+        return admit(labelValues) != null ? labelValues : overflow(labelValues.length);
+    }
+
+    /**
+     * Returns the admission of the label values, or null when they are rejected and the observation
+     * goes to the {@link #overflow} series. The admission may be kept together with the series of
+     * the label values, as long as {@link Admission#use} is called on each observation.
+     */
+    public Admission admit(String... labelValues) {
+        List<String> key = Arrays.asList(labelValues);
+        Admission admission = admitted.get(key);
+        if (admission != null && admission.use()) {
+            return admission;
+        }
+        admission = admitNew(key);
+        if (admission == null) {
+            rejected.labels(family).inc();
+            return null;
+        }
+        admission.use();
+        return admission;
+    }
+
+    private synchronized Admission admitNew(List<String> key) {
+        Admission admission = admitted.get(key);
+        if (admission == null && size.get() < limit) {
+            admission = new Admission(System.currentTimeMillis());
+            admitted.put(key, admission);
+            size.incrementAndGet();
+        }
+        return admission;
+    }
+
+    /**
+     * Removes the series of the combinations not used since the given time from the guarded
+     * collectors and returns their number. The time of use is taken when a previous call saw the
+     * combination used, so it is precise to the interval of the calls. Admissions are not created
+     * while series are removed, so that a series created for a new admission is never removed by an
+     * older one. An observation racing with the expiry may be lost together with the series.
+     */
+    public synchronized int expire(long idleBefore) {
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        for (Map.Entry<List<String>, Admission> entry : admitted.entrySet()) {
+            Admission admission = entry.getValue();
+            if (admission.used) {
+                admission.used = false;
+                admission.lastUsed = now;
+            } else if (admission.lastUsed < idleBefore) {
+                admission.expired = true;
+                admitted.remove(entry.getKey());
+                size.decrementAndGet();
+                String[] labelValues = entry.getKey().toArray(new String[entry.getKey().size()]);
+                for (SimpleCollector<?> collector : collectors) {
+                    collector.remove(labelValues);
+                }
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    public static String[] overflow(int labelCount) {
+        String[] overflow = new String[labelCount];
+        Arrays.fill(overflow, OTHER);
+        return overflow;
+    }
+
+    /**
+     * Admitted label value combination. Marking its use writes a shared word only once per expiry
+     * interval and does not read the clock.
+     */
+    public static final class Admission {
+        private volatile boolean used;
+        private volatile boolean expired;
+
+        /**
+         * Written by {@link #expire} only, under the lock of the guard.
+         */
+        private long lastUsed;
+
+        private Admission(long lastUsed) {
+            this.lastUsed = lastUsed;
+        }
+
+        /**
+         * Marks the combination used and returns whether its series are still exposed. Once this
+         * returns false the series kept with the admission have to be looked up again.
+         */
+        public boolean use() {
+            if (!used) {
+                used = true;
+            }
+            return !expired;
+        }
+    }
+}
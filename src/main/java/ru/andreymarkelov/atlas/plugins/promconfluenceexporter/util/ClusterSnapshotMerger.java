@@ -0,0 +1,130 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Collector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges snapshots of the cluster nodes into one view. Counters and histograms are summed across
+ * the nodes, families which hold the same cluster-wide value on every node are taken from the
+ * freshest snapshot only, and the other gauges are kept per node under the {@code node} label.
+ */
+public final class ClusterSnapshotMerger {
+    public static final String NODE_LABEL = "node";
+
+    private ClusterSnapshotMerger() {
+    }
+
+    public static List<Collector.MetricFamilySamples> merge(Collection<NodeSnapshot> snapshots, Set<String> deduplicatedFamilies) {
+        List<NodeSnapshot> freshestFirst = new ArrayList<>(snapshots);
+        Collections.sort(freshestFirst, new Comparator<NodeSnapshot>() {
+            @Override
+            public int compare(NodeSnapshot o1, NodeSnapshot o2) {
+                return Long.compare(o2.getTimestamp(), o1.getTimestamp());
+            }
+        });
+
+        Map<String, MergedFamily> families = new LinkedHashMap<>();
+        for (NodeSnapshot snapshot : freshestFirst) {
+            for (Collector.MetricFamilySamples metricFamilySamples : snapshot.getSamples()) {
+                MergedFamily family = families.get(metricFamilySamples.name);
+                if (family == null) {
+                    family = new MergedFamily(metricFamilySamples);
+                    families.put(metricFamilySamples.name, family);
+                } else if (family.type != metricFamilySamples.type || deduplicatedFamilies.contains(metricFamilySamples.name)) {
+                    continue;
+                }
+
+                if (deduplicatedFamilies.contains(metricFamilySamples.name)) {
+                    family.addAll(metricFamilySamples.samples);
+                } else if (isCumulative(metricFamilySamples.type)) {
+                    family.sum(metricFamilySamples.samples);
+                } else {
+                    family.addAll(withNode(metricFamilySamples.samples, snapshot.getNode()));
+                }
+            }
+        }
+
+        List<Collector.MetricFamilySamples> result = new ArrayList<>(families.size());
+        for (MergedFamily family : families.values()) {
+            result.add(family.toMetricFamilySamples());
+        }
+        return result;
+    }
+
+    private static boolean isCumulative(Collector.Type type) {
+        return type == Collector.Type.COUNTER || type == Collector.Type.HISTOGRAM || type == Collector.Type.SUMMARY;
+    }
+
+    private static List<Collector.MetricFamilySamples.Sample> withNode(List<Collector.MetricFamilySamples.Sample> samples, String node) {
+        List<Collector.MetricFamilySamples.Sample> result = new ArrayList<>(samples.size());
+        for (Collector.MetricFamilySamples.Sample sample : samples) {
+            List<String> labelNames = new ArrayList<>(sample.labelNames.size() + 1);
+            List<String> labelValues = new ArrayList<>(sample.labelValues.size() + 1);
+            labelNames.addAll(sample.labelNames);
+            labelValues.addAll(sample.labelValues);
+            labelNames.add(NODE_LABEL);
+            labelValues.add(node);
+            result.add(new Collector.MetricFamilySamples.Sample(sample.name, labelNames, labelValues, sample.value));
+        }
+        return result;
+    }
+
+    private static final class MergedFamily {
+        private final String name;
+        private final Collector.Type type;
+        private final String help;
+        private final Map<List<String>, Collector.MetricFamilySamples.Sample> samples;
+
+        private MergedFamily(Collector.MetricFamilySamples metricFamilySamples) {
+            this.name = metricFamilySamples.name;
+            this.type = metricFamilySamples.type;
+            this.help = metricFamilySamples.help;
+            this.samples = new LinkedHashMap<>();
+        }
+
+        private void addAll(List<Collector.MetricFamilySamples.Sample> newSamples) {
+            for (Collector.MetricFamilySamples.Sample sample : newSamples) {
+                samples.put(key(sample), sample);
+            }
+        }
+
+        private void sum(List<Collector.MetricFamilySamples.Sample> newSamples) {
+            for (Collector.MetricFamilySamples.Sample sample : newSamples) {
+                if (sample.labelNames.contains("quantile")) {
+                    // quantiles of different nodes cannot be added up
+                    continue;
+                }
+                List<String> key = key(sample);
+                Collector.MetricFamilySamples.Sample existing = samples.get(key);
+                if (existing == null) {
+                    samples.put(key, sample);
+                } else {
+                    samples.put(key, new Collector.MetricFamilySamples.Sample(
+                            sample.name, sample.labelNames, sample.labelValues, existing.value + sample.value));
+                }
+            }
+        }
+
+        private Collector.MetricFamilySamples toMetricFamilySamples() {
+            return new Collector.MetricFamilySamples(name, type, help, new ArrayList<>(samples.values()));
+        }
+
+        private static List<String> key(Collector.MetricFamilySamples.Sample sample) {
+            List<String> key = new ArrayList<>(sample.labelNames.size() * 2 + 1);
+            key.add(sample.name);
+            for (int i = 0; i < sample.labelNames.size(); i++) {
+                key.add(sample.labelNames.get(i));
+                key.add(sample.labelValues.get(i));
+            }
+            return key;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Number of requests in progress together with the peak reached within the last minute. The peak is
+ * kept in slots of 15 seconds, each holding its period and its maximum packed in one long, so that
+ * reading it never resets it and every scraper sees the same value.
+ */
+public class ConcurrencyGauge {
+    private static final long SLOT_MS = 15000;
+    private static final int SLOTS = 4;
+
+    private final AtomicInteger current;
+    private final AtomicLongArray slots;
+
+    public ConcurrencyGauge() {
+        this.current = new AtomicInteger();
+        this.slots = new AtomicLongArray(SLOTS);
+    }
+
+    public void enter() {
+        int value = current.incrementAndGet();
+        long period = System.currentTimeMillis() / SLOT_MS;
+        int index = (int) (period % SLOTS);
+        while (true) {
+            long packed = slots.get(index);
+            long slotPeriod = packed >>> 32;
+            if (slotPeriod > period || (slotPeriod == period && (int) packed >= value)) {
+                // the peak is written only when it grows, so most requests only read it
+                return;
+            }
+            if (slots.compareAndSet(index, packed, (period << 32) | value)) {
+                return;
+            }
+        }
+    }
+
+    public void exit() {
+        current.decrementAndGet();
+    }
+
+    public int getCurrent() {
+        return current.get();
+    }
+
+    public int getMax() {
+        long oldestPeriod = System.currentTimeMillis() / SLOT_MS - (SLOTS - 1);
+        int max = current.get();
+        for (int i = 0; i < SLOTS; i++) {
+            long packed = slots.get(i);
+            if ((packed >>> 32) >= oldestPeriod) {
+                max = Math.max(max, (int) packed);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,107 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * Counts the body written to the response as it passes through, nothing is buffered. Output written
+ * through the writer is counted in characters, which equals bytes for the ASCII range. The count is
+ * read on the thread completing an async request, which need not be the one that wrote the body.
+ */
+public class CountingResponseWrapper extends HttpServletResponseWrapper {
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+    private volatile long count;
+
+    public CountingResponseWrapper(HttpServletResponse response) {
+        super(response);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            final ServletOutputStream target = super.getOutputStream();
+            outputStream = new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    target.write(b);
+                    count++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    target.write(b, off, len);
+                    count += len;
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    target.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    target.close();
+                }
+
+                // servlet 3.1 non-blocking output, called only by containers providing it
+                @Override
+                public boolean isReady() {
+                    return target.isReady();
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                    target.setWriteListener(writeListener);
+                }
+            };
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            final PrintWriter target = super.getWriter();
+            writer = new PrintWriter(new Writer() {
+                @Override
+                public void write(int c) {
+                    target.write(c);
+                    count++;
+                }
+
+                @Override
+                public void write(char[] cbuf, int off, int len) {
+                    target.write(cbuf, off, len);
+                    count += len;
+                }
+
+                @Override
+                public void write(String str, int off, int len) {
+                    target.write(str, off, len);
+                    count += len;
+                }
+
+                @Override
+                public void flush() {
+                    target.flush();
+                }
+
+                @Override
+                public void close() {
+                    target.close();
+                }
+            });
+        }
+        return writer;
+    }
+}
@@ -0,0 +1,37 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Bounded pool of raw deflaters, so each compressed scrape does not allocate native zlib buffers.
+ */
+public class DeflaterPool {
+    private final BlockingQueue<Deflater> deflaters;
+    private final int level;
+
+    public DeflaterPool(int size, int level) {
+        this.deflaters = new ArrayBlockingQueue<>(size);
+        this.level = level;
+    }
+
+    public Deflater borrow() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(level, true);
+    }
+
+    public void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    public void close() {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+    }
+}
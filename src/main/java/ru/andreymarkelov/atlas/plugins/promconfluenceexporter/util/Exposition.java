@@ -0,0 +1,69 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Collector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Immutable pre-rendered scrape payload. Each format and encoding is rendered once on first use.
+ */
+public final class Exposition {
+    private final List<Collector.MetricFamilySamples> samples;
+    private final long timestamp;
+    private final AtomicReferenceArray<byte[]> payloads;
+
+    public Exposition(List<Collector.MetricFamilySamples> samples, long timestamp) {
+        this.samples = samples;
+        this.timestamp = timestamp;
+        this.payloads = new AtomicReferenceArray<>(ExpositionFormat.values().length * 2);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getEtag(ExpositionFormat format, boolean gzip) {
+        return "\"" + Long.toHexString(timestamp) + "-" + variant(format, gzip) + "\"";
+    }
+
+    public long getAge() {
+        return System.currentTimeMillis() - timestamp;
+    }
+
+    public byte[] getPayload(ExpositionFormat format, boolean gzip, DeflaterPool deflaterPool) throws IOException {
+        int variant = variant(format, gzip);
+        byte[] payload = payloads.get(variant);
+        if (payload == null) {
+            payload = render(format, gzip, deflaterPool);
+            if (!payloads.compareAndSet(variant, null, payload)) {
+                payload = payloads.get(variant);
+            }
+        }
+        return payload;
+    }
+
+    private byte[] render(ExpositionFormat format, boolean gzip, DeflaterPool deflaterPool) throws IOException {
+        byte[] plain = payloads.get(variant(format, false));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(plain != null ? plain.length : 8192);
+        OutputStream target = gzip ? new GzipOutputStream(outputStream, deflaterPool) : outputStream;
+        if (plain != null) {
+            try (OutputStream out = target) {
+                out.write(plain);
+            }
+        } else {
+            try (OutputStream out = target) {
+                format.write(out, Collections.enumeration(samples));
+            }
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static int variant(ExpositionFormat format, boolean gzip) {
+        return format.ordinal() * 2 + (gzip ? 1 : 0);
+    }
+}
@@ -0,0 +1,57 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Enumeration;
+
+public enum ExpositionFormat {
+    TEXT_004(TextFormat.CONTENT_TYPE_004) {
+        @Override
+        public void write(OutputStream outputStream, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+            TEXT_ENCODER.write(outputStream, mfs);
+        }
+    },
+    OPENMETRICS_100(OpenMetricsFormat.CONTENT_TYPE_OPENMETRICS_100) {
+        @Override
+        public void write(OutputStream outputStream, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8));
+            OpenMetricsFormat.write100(writer, mfs);
+            writer.flush();
+        }
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final TextEncoder TEXT_ENCODER = new TextEncoder();
+
+    private final String contentType;
+
+    ExpositionFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Writes the samples to the stream, leaving it open.
+     */
+    public abstract void write(OutputStream outputStream, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException;
+
+    /**
+     * Picks the format for the Accept header sent by the scraper.
+     */
+    public static ExpositionFormat negotiate(String acceptHeader) {
+        if (acceptHeader != null && acceptHeader.contains("application/openmetrics-text")) {
+            return OPENMETRICS_100;
+        }
+        return TEXT_004;
+    }
+}
@@ -0,0 +1,71 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Gzip stream which takes its deflater from a {@link DeflaterPool} and returns it on close.
+ */
+public class GzipOutputStream extends DeflaterOutputStream {
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final DeflaterPool deflaterPool;
+    private final CRC32 crc;
+    private boolean closed;
+
+    public GzipOutputStream(OutputStream out, DeflaterPool deflaterPool) throws IOException {
+        super(out, deflaterPool.borrow(), 8192);
+        this.deflaterPool = deflaterPool;
+        this.crc = new CRC32();
+        try {
+            out.write(HEADER);
+        } catch (IOException | RuntimeException ex) {
+            // the stream is never returned, so close() cannot give the deflater back
+            closed = true;
+            deflaterPool.release(def);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        super.write(b, off, len);
+        crc.update(b, off, len);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!def.finished()) {
+            def.finish();
+            while (!def.finished()) {
+                deflate();
+            }
+            writeInt((int) crc.getValue());
+            writeInt((int) def.getBytesRead());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            finish();
+            out.close();
+        } finally {
+            deflaterPool.release(def);
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+}
@@ -0,0 +1,71 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Metric family names requested by a scrape through name[]. A trailing '*' matches by prefix.
+ */
+public final class MetricFilter {
+    public static final MetricFilter ALL = new MetricFilter(Collections.<String>emptySet(), Collections.<String>emptyList());
+
+    private final Set<String> names;
+    private final List<String> prefixes;
+
+    private MetricFilter(Set<String> names, List<String> prefixes) {
+        this.names = names;
+        this.prefixes = prefixes;
+    }
+
+    public static MetricFilter of(Set<String> includedNames) {
+        if (includedNames == null || includedNames.isEmpty()) {
+            return ALL;
+        }
+
+        Set<String> names = new HashSet<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String includedName : includedNames) {
+            if (includedName.endsWith("*")) {
+                prefixes.add(includedName.substring(0, includedName.length() - 1));
+            } else {
+                names.add(includedName);
+            }
+        }
+        return new MetricFilter(names, prefixes);
+    }
+
+    public boolean isAll() {
+        return names.isEmpty() && prefixes.isEmpty();
+    }
+
+    public boolean accept(String name) {
+        if (isAll() || names.contains(name)) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean acceptAny(Set<String> familyNames) {
+        for (String familyName : familyNames) {
+            if (accept(familyName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Exact names of the filter, without prefix patterns.
+     */
+    public Set<String> getNames() {
+        return names;
+    }
+}
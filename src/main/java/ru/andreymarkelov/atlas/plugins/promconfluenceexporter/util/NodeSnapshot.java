@@ -0,0 +1,146 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Collector;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Metric families of one cluster node at a point of time. Snapshots are exchanged between the nodes
+ * as plain bytes, so that the shared store never has to load plugin classes. Strings are written
+ * as length prefixed UTF-8, help texts and label values may exceed the 64KB of writeUTF.
+ */
+public final class NodeSnapshot {
+    private static final int VERSION = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String node;
+    private final long timestamp;
+    private final List<Collector.MetricFamilySamples> samples;
+
+    public NodeSnapshot(String node, long timestamp, List<Collector.MetricFamilySamples> samples) {
+        this.node = node;
+        this.timestamp = timestamp;
+        this.samples = samples;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public List<Collector.MetricFamilySamples> getSamples() {
+        return samples;
+    }
+
+    public byte[] toBytes() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(8192);
+        try (DataOutputStream out = new DataOutputStream(outputStream)) {
+            out.writeInt(VERSION);
+            writeString(out, node);
+            out.writeLong(timestamp);
+            out.writeInt(samples.size());
+            for (Collector.MetricFamilySamples metricFamilySamples : samples) {
+                writeString(out, metricFamilySamples.name);
+                writeString(out, metricFamilySamples.type.name());
+                writeString(out, metricFamilySamples.help);
+                out.writeInt(metricFamilySamples.samples.size());
+                for (Collector.MetricFamilySamples.Sample sample : metricFamilySamples.samples) {
+                    writeString(out, sample.name);
+                    out.writeInt(sample.labelNames.size());
+                    for (int i = 0; i < sample.labelNames.size(); i++) {
+                        writeString(out, sample.labelNames.get(i));
+                        writeString(out, sample.labelValues.get(i));
+                    }
+                    out.writeDouble(sample.value);
+                }
+            }
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Reads a snapshot written by {@link #toBytes}, any malformed content is reported as an
+     * IOException, so that one bad snapshot only drops its own node.
+     */
+    public static NodeSnapshot fromBytes(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            String node = readString(in);
+            long timestamp = in.readLong();
+            int familyCount = readCount(in);
+            List<Collector.MetricFamilySamples> samples = new ArrayList<>(familyCount);
+            for (int f = 0; f < familyCount; f++) {
+                String name = readString(in);
+                Collector.Type type = readType(in);
+                String help = readString(in);
+                int sampleCount = readCount(in);
+                List<Collector.MetricFamilySamples.Sample> familySamples = new ArrayList<>(sampleCount);
+                for (int s = 0; s < sampleCount; s++) {
+                    String sampleName = readString(in);
+                    int labelCount = readCount(in);
+                    List<String> labelNames = new ArrayList<>(labelCount);
+                    List<String> labelValues = new ArrayList<>(labelCount);
+                    for (int l = 0; l < labelCount; l++) {
+                        labelNames.add(readString(in));
+                        labelValues.add(readString(in));
+                    }
+                    familySamples.add(new Collector.MetricFamilySamples.Sample(sampleName, labelNames, labelValues, in.readDouble()));
+                }
+                samples.add(new Collector.MetricFamilySamples(name, type, help, familySamples));
+            }
+            return new NodeSnapshot(node, timestamp, samples);
+        } catch (RuntimeException ex) {
+            throw new IOException("Malformed snapshot", ex);
+        }
+    }
+
+    private static Collector.Type readType(DataInputStream in) throws IOException {
+        String type = readString(in);
+        try {
+            return Collector.Type.valueOf(type);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Unsupported metric type " + type, ex);
+        }
+    }
+
+    /**
+     * Reads a number of entries, each entry takes at least one byte, so more than the remaining
+     * bytes means a corrupt snapshot rather than a reason to allocate.
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.available()) {
+            throw new IOException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,107 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Collector;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Enumeration;
+
+/**
+ * OpenMetrics 1.0.0 text format writer, the counterpart of {@link io.prometheus.client.exporter.common.TextFormat}.
+ */
+public final class OpenMetricsFormat {
+    public static final String CONTENT_TYPE_OPENMETRICS_100 = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final String TOTAL_SUFFIX = "_total";
+
+    private OpenMetricsFormat() {
+    }
+
+    public static void write100(Writer writer, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+        while (mfs.hasMoreElements()) {
+            Collector.MetricFamilySamples metricFamilySamples = mfs.nextElement();
+            boolean counter = metricFamilySamples.type == Collector.Type.COUNTER;
+            String name = metricFamilySamples.name;
+            if (counter && name.endsWith(TOTAL_SUFFIX)) {
+                name = name.substring(0, name.length() - TOTAL_SUFFIX.length());
+            }
+
+            writer.write("# TYPE ");
+            writer.write(name);
+            writer.write(' ');
+            writer.write(typeString(metricFamilySamples.type));
+            writer.write('\n');
+
+            writer.write("# HELP ");
+            writer.write(name);
+            writer.write(' ');
+            writeEscaped(writer, metricFamilySamples.help);
+            writer.write('\n');
+
+            for (Collector.MetricFamilySamples.Sample sample : metricFamilySamples.samples) {
+                writer.write(sample.name);
+                if (counter && sample.name.equals(name)) {
+                    writer.write(TOTAL_SUFFIX);
+                }
+                if (!sample.labelNames.isEmpty()) {
+                    writer.write('{');
+                    for (int i = 0; i < sample.labelNames.size(); ++i) {
+                        if (i > 0) {
+                            writer.write(',');
+                        }
+                        writer.write(sample.labelNames.get(i));
+                        writer.write("=\"");
+                        writeEscaped(writer, sample.labelValues.get(i));
+                        writer.write('"');
+                    }
+                    writer.write('}');
+                }
+                writer.write(' ');
+                writer.write(Collector.doubleToGoString(sample.value));
+                if (sample.timestampMs != null) {
+                    writer.write(' ');
+                    writer.write(Long.toString(sample.timestampMs / 1000));
+                    writer.write('.');
+                    String millis = Long.toString(sample.timestampMs % 1000 + 1000);
+                    writer.write(millis, 1, 3);
+                }
+                writer.write('\n');
+            }
+        }
+        writer.write("# EOF\n");
+    }
+
+    private static void writeEscaped(Writer writer, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\"':
+                    writer.write("\\\"");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+    }
+
+    private static String typeString(Collector.Type type) {
+        switch (type) {
+            case GAUGE:
+                return "gauge";
+            case COUNTER:
+                return "counter";
+            case SUMMARY:
+                return "summary";
+            case HISTOGRAM:
+                return "histogram";
+            default:
+                return "unknown";
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides from include and exclude path prefixes whether a request is instrumented. A rule is a
+ * prefix starting with {@code /}, optionally preceded by {@code +} to include or {@code -} to exclude
+ * the paths starting with it. The longest matching prefix wins. Paths matching no rule are included,
+ * unless include rules are given, in which case only the paths they match are included. Matching
+ * works on the request URI in place and does not allocate.
+ */
+public final class PathPrefixMatcher {
+    private final String[] prefixes;
+    private final boolean[] included;
+    private final boolean includedByDefault;
+
+    private PathPrefixMatcher(String[] prefixes, boolean[] included, boolean includedByDefault) {
+        this.prefixes = prefixes;
+        this.included = included;
+        this.includedByDefault = includedByDefault;
+    }
+
+    public static boolean isValidRule(String rule) {
+        String prefix = prefix(rule);
+        return prefix.startsWith("/");
+    }
+
+    /**
+     * Compiles the rules, blank and invalid rules are skipped.
+     */
+    public static PathPrefixMatcher compile(List<String> rules) {
+        List<String> ordered = new ArrayList<>();
+        if (rules != null) {
+            for (String rule : rules) {
+                if (rule != null && isValidRule(rule)) {
+                    ordered.add(rule.trim());
+                }
+            }
+        }
+        Collections.sort(ordered, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return Integer.compare(prefix(o2).length(), prefix(o1).length());
+            }
+        });
+
+        String[] prefixes = new String[ordered.size()];
+        boolean[] included = new boolean[ordered.size()];
+        boolean includedByDefault = true;
+        for (int i = 0; i < prefixes.length; i++) {
+            String rule = ordered.get(i);
+            prefixes[i] = prefix(rule);
+            included[i] = !rule.startsWith("-");
+            if (included[i]) {
+                includedByDefault = false;
+            }
+        }
+        return new PathPrefixMatcher(prefixes, included, includedByDefault);
+    }
+
+    /**
+     * Tells whether the path which starts in the URI at the given offset, usually the length of the
+     * context path, is included.
+     */
+    public boolean matches(String uri, int offset) {
+        if (uri == null) {
+            return includedByDefault;
+        }
+        for (int i = 0; i < prefixes.length; i++) {
+            if (uri.startsWith(prefixes[i], offset)) {
+                return included[i];
+            }
+        }
+        return includedByDefault;
+    }
+
+    private static String prefix(String rule) {
+        String trimmed = rule.trim();
+        return trimmed.startsWith("+") || trimmed.startsWith("-") ? trimmed.substring(1).trim() : trimmed;
+    }
+}
@@ -0,0 +1,164 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Distinct values seen within rolling windows of the last hour, day, week and month. Values are
+ * added into {@link HyperLogLog} sketches of 5 minute, hourly and daily slots and a window is
+ * estimated by merging the slots it covers, so the memory is fixed whatever the number of values.
+ * A window merges the current, partly elapsed slot and as many whole slots before it as the window
+ * is long, so it covers the whole window and at most one slot length more. States of several nodes
+ * are combined by {@link #merge}, which is idempotent.
+ */
+public final class RollingUniqueCounter {
+    public enum Window {
+        HOUR("1h", 0, 12),
+        DAY("24h", 1, 24),
+        WEEK("7d", 2, 7),
+        MONTH("30d", 2, 30);
+
+        private final String label;
+        private final int ring;
+        private final int slots;
+
+        Window(String label, int ring, int slots) {
+            this.label = label;
+            this.ring = ring;
+            this.slots = slots;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final int VERSION = 1;
+    private static final int PRECISION = 11;
+
+    private static final long[] SLOT_LENGTHS = {TimeUnit.MINUTES.toMillis(5), TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1)};
+    /**
+     * Slots of the longest window of each ring and one more for the current slot.
+     */
+    private static final int[] SLOT_COUNTS = {13, 25, 31};
+
+    /**
+     * Period of each slot, the time divided by the slot length, or -1 for an unused slot.
+     */
+    private final long[][] periods;
+    private final HyperLogLog[][] sketches;
+
+    public RollingUniqueCounter() {
+        this.periods = new long[SLOT_LENGTHS.length][];
+        this.sketches = new HyperLogLog[SLOT_LENGTHS.length][];
+        for (int ring = 0; ring < SLOT_LENGTHS.length; ring++) {
+            periods[ring] = new long[SLOT_COUNTS[ring]];
+            sketches[ring] = new HyperLogLog[SLOT_COUNTS[ring]];
+            for (int slot = 0; slot < SLOT_COUNTS[ring]; slot++) {
+                periods[ring][slot] = -1;
+                sketches[ring][slot] = new HyperLogLog(PRECISION);
+            }
+        }
+    }
+
+    /**
+     * Adds the value seen at the given time, values older than the longest window are ignored.
+     */
+    public synchronized void add(String value, long time) {
+        long hash = HyperLogLog.hash(value);
+        long now = System.currentTimeMillis();
+        for (int ring = 0; ring < periods.length; ring++) {
+            HyperLogLog sketch = slot(ring, time / SLOT_LENGTHS[ring], now);
+            if (sketch != null) {
+                sketch.add(hash);
+            }
+        }
+    }
+
+    public synchronized long estimate(Window window, long now) {
+        long currentPeriod = now / SLOT_LENGTHS[window.ring];
+        HyperLogLog merged = new HyperLogLog(PRECISION);
+        for (int slot = 0; slot < periods[window.ring].length; slot++) {
+            long period = periods[window.ring][slot];
+            if (period >= currentPeriod - window.slots && period <= currentPeriod) {
+                merged.merge(sketches[window.ring][slot].getRegisters());
+            }
+        }
+        return merged.estimate();
+    }
+
+    /**
+     * Merges a state written by {@link #toBytes} into this one.
+     */
+    public synchronized void merge(byte[] bytes) throws IOException {
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes)))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported unique counter version " + version);
+            }
+            if (in.readInt() != PRECISION) {
+                throw new IOException("Unsupported unique counter precision");
+            }
+            byte[] registers = new byte[1 << PRECISION];
+            int rings = in.readInt();
+            for (int ring = 0; ring < rings; ring++) {
+                int slots = in.readInt();
+                for (int slot = 0; slot < slots; slot++) {
+                    long period = in.readLong();
+                    in.readFully(registers);
+                    if (ring < periods.length && period >= 0) {
+                        HyperLogLog sketch = slot(ring, period, now);
+                        if (sketch != null) {
+                            sketch.merge(registers);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized byte[] toBytes() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(8192);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(outputStream))) {
+            out.writeInt(VERSION);
+            out.writeInt(PRECISION);
+            out.writeInt(periods.length);
+            for (int ring = 0; ring < periods.length; ring++) {
+                out.writeInt(periods[ring].length);
+                for (int slot = 0; slot < periods[ring].length; slot++) {
+                    out.writeLong(periods[ring][slot]);
+                    out.write(sketches[ring][slot].getRegisters());
+                }
+            }
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Returns the sketch of the period, recycling the slot of an older period, or null when the
+     * period is out of the ring or its slot already holds a newer one.
+     */
+    private HyperLogLog slot(int ring, long period, long now) {
+        long currentPeriod = now / SLOT_LENGTHS[ring];
+        int count = periods[ring].length;
+        if (period <= currentPeriod - count || period > currentPeriod) {
+            return null;
+        }
+        int slot = (int) (period % count);
+        if (periods[ring][slot] > period) {
+            return null;
+        }
+        if (periods[ring][slot] < period) {
+            periods[ring][slot] = period;
+            sketches[ring][slot].clear();
+        }
+        return sketches[ring][slot];
+    }
+}
@@ -0,0 +1,150 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps request paths onto a fixed set of route templates, so that the path label stays bounded.
+ * Templates are compiled once into a trie of path segments: a literal segment, a {@code {name}}
+ * segment which matches any single segment and a trailing {@code *} which matches the rest of the
+ * path. Literal segments win over variables, path parameters such as {@code ;jsessionid} are
+ * ignored and paths matching no template are reported as {@link #OTHER}. Matching works on the
+ * request URI in place and does not allocate.
+ */
+public final class RouteNormalizer {
+    public static final String OTHER = "other";
+
+    private final Node root;
+
+    private RouteNormalizer(Node root) {
+        this.root = root;
+    }
+
+    public static RouteNormalizer compile(String... templates) {
+        Builder root = new Builder();
+        for (String template : templates) {
+            Builder node = root;
+            for (String segment : template.split("/")) {
+                if (segment.isEmpty()) {
+                    continue;
+                }
+                if (segment.equals("*")) {
+                    node.prefixTemplate = template;
+                    node = null;
+                    break;
+                }
+                if (segment.startsWith("{") && segment.endsWith("}")) {
+                    if (node.variable == null) {
+                        node.variable = new Builder();
+                    }
+                    node = node.variable;
+                } else {
+                    Builder child = node.literals.get(segment);
+                    if (child == null) {
+                        child = new Builder();
+                        node.literals.put(segment, child);
+                    }
+                    node = child;
+                }
+            }
+            if (node != null) {
+                node.template = template;
+            }
+        }
+        return new RouteNormalizer(root.build());
+    }
+
+    /**
+     * Returns the template of the path which starts in the URI at the given offset, usually the
+     * length of the context path.
+     */
+    public String normalize(String uri, int offset) {
+        if (uri == null) {
+            return OTHER;
+        }
+        String template = match(root, uri, offset, uri.length());
+        return template != null ? template : OTHER;
+    }
+
+    private static String match(Node node, String uri, int pos, int end) {
+        while (pos < end && uri.charAt(pos) == '/') {
+            pos++;
+        }
+        if (pos >= end) {
+            return node.template != null ? node.template : node.prefixTemplate;
+        }
+
+        int segmentEnd = uri.indexOf('/', pos);
+        if (segmentEnd < 0) {
+            segmentEnd = end;
+        }
+        int valueEnd = uri.indexOf(';', pos);
+        if (valueEnd < 0 || valueEnd > segmentEnd) {
+            valueEnd = segmentEnd;
+        }
+
+        Node literal = node.literal(uri, pos, valueEnd - pos);
+        if (literal != null) {
+            String template = match(literal, uri, segmentEnd, end);
+            if (template != null) {
+                return template;
+            }
+        }
+        if (node.variable != null && valueEnd > pos) {
+            String template = match(node.variable, uri, segmentEnd, end);
+            if (template != null) {
+                return template;
+            }
+        }
+        return node.prefixTemplate;
+    }
+
+    private static final class Node {
+        private final String[] literals;
+        private final Node[] literalNodes;
+        private final Node variable;
+        private final String template;
+        private final String prefixTemplate;
+
+        private Node(String[] literals, Node[] literalNodes, Node variable, String template, String prefixTemplate) {
+            this.literals = literals;
+            this.literalNodes = literalNodes;
+            this.variable = variable;
+            this.template = template;
+            this.prefixTemplate = prefixTemplate;
+        }
+
+        private Node literal(String uri, int pos, int length) {
+            for (int i = 0; i < literals.length; i++) {
+                String literal = literals[i];
+                if (literal.length() == length && uri.regionMatches(pos, literal, 0, length)) {
+                    return literalNodes[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Builder {
+        private final Map<String, Builder> literals = new LinkedHashMap<>();
+        private Builder variable;
+        private String template;
+        private String prefixTemplate;
+
+        private Node build() {
+            List<String> names = new ArrayList<>(literals.keySet());
+            Node[] nodes = new Node[names.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = literals.get(names.get(i)).build();
+            }
+            return new Node(
+                    names.toArray(new String[names.size()]),
+                    nodes,
+                    variable != null ? variable.build() : null,
+                    template,
+                    prefixTemplate);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodic task with its own interval, timeout and jitter. A run is scheduled only after the
+ * previous one ended, so runs of one task never overlap. The timeout does not end a run by itself:
+ * when it passes, the watchdog counts the run as timed out and interrupts it, which stops only code
+ * responding to interrupts. Calls which ignore interrupts, such as JDBC statements, have to be
+ * bounded with {@link #remainingMillis} by the body, otherwise the run keeps its executor thread
+ * until they return. Stopping likewise only interrupts a run in progress, which may then outlive
+ * the stop and run alongside a task started in its place; such a run has to check {@link #isStopped}
+ * before it publishes its results. Each delay is varied by the jitter, so that tasks of the same
+ * interval spread out instead of hitting the database together.
+ */
+public class ScheduledTask {
+    private static final Logger log = LoggerFactory.getLogger(ScheduledTask.class);
+
+    /**
+     * Task run on the current thread.
+     */
+    private static final ThreadLocal<ScheduledTask> RUNNING = new ThreadLocal<>();
+
+    private final String name;
+    private final long intervalMillis;
+    private final long timeoutMillis;
+    private final double jitter;
+    private final Callable<Boolean> body;
+    private final AtomicLong timeouts;
+
+    private volatile long lastDurationNanos;
+    private volatile long lastSuccess;
+    private volatile boolean stopped;
+
+    /**
+     * Timeout of the current run, as System.nanoTime, written by the runner only.
+     */
+    private long deadline;
+
+    private ScheduledExecutorService executor;
+    private ScheduledExecutorService watchdog;
+    private ScheduledFuture<?> next;
+    private Thread runner;
+
+    /**
+     * @param jitter fraction of the interval by which each delay is varied either way
+     * @param body returns whether the run succeeded
+     */
+    public ScheduledTask(String name, long intervalMillis, long timeoutMillis, double jitter, Callable<Boolean> body) {
+        this.name = name;
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.jitter = jitter;
+        this.body = body;
+        this.timeouts = new AtomicLong();
+        this.lastDurationNanos = -1;
+        this.lastSuccess = -1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLastDurationNanos() {
+        return lastDurationNanos;
+    }
+
+    public long getLastSuccess() {
+        return lastSuccess;
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * Returns the milliseconds left until the timeout of the run on the current thread, at least 0,
+     * or -1 when the thread does not run a task.
+     */
+    public static long remainingMillis() {
+        ScheduledTask task = RUNNING.get();
+        return task != null ? Math.max(TimeUnit.NANOSECONDS.toMillis(task.deadline - System.nanoTime()), 0) : -1;
+    }
+
+    /**
+     * Returns whether the task run on the current thread has been stopped, its results are then
+     * to be discarded, or false when the thread does not run a task.
+     */
+    public static boolean isStopped() {
+        ScheduledTask task = RUNNING.get();
+        return task != null && task.stopped;
+    }
+
+    /**
+     * Starts the task after a random part of the jitter, the runs are executed on the executor and
+     * interrupted on timeout by the watchdog, which must not be the same executor.
+     */
+    public void start(ScheduledExecutorService executor, ScheduledExecutorService watchdog) {
+        start(executor, watchdog, (long) (ThreadLocalRandom.current().nextDouble() * jitter * intervalMillis));
+    }
+
+    /**
+     * Starts the task after the given delay, for a first run which must not wait for the jitter.
+     */
+    public synchronized void start(ScheduledExecutorService executor, ScheduledExecutorService watchdog, long initialDelayMillis) {
+        this.executor = executor;
+        this.watchdog = watchdog;
+        this.stopped = false;
+        schedule(initialDelayMillis);
+    }
+
+    /**
+     * Cancels the next run and interrupts the current one without waiting for it to end.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (next != null) {
+            next.cancel(false);
+        }
+        if (runner != null) {
+            runner.interrupt();
+        }
+    }
+
+    private void run() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            runner = Thread.currentThread();
+        }
+        ScheduledFuture<?> timeout = watchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                interruptRunner();
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        RUNNING.set(this);
+        boolean success = false;
+        try {
+            success = Boolean.TRUE.equals(body.call());
+        } catch (Throwable th) {
+            log.error("Error run scheduled task {}", name, th);
+        } finally {
+            RUNNING.remove();
+            timeout.cancel(false);
+            synchronized (this) {
+                runner = null;
+            }
+            // the runner is released, an interrupt delivered before must not reach the next task of the thread
+            Thread.interrupted();
+            lastDurationNanos = System.nanoTime() - start;
+            if (success) {
+                lastSuccess = System.currentTimeMillis();
+            }
+            synchronized (this) {
+                if (!stopped) {
+                    long spread = (long) (jitter * intervalMillis);
+                    schedule(intervalMillis + (spread > 0 ? ThreadLocalRandom.current().nextLong(-spread, spread + 1) : 0));
+                }
+            }
+        }
+    }
+
+    private synchronized void interruptRunner() {
+        if (runner != null) {
+            timeouts.incrementAndGet();
+            log.warn("Scheduled task {} exceeded its timeout of {} ms and is interrupted", name, timeoutMillis);
+            runner.interrupt();
+        }
+    }
+
+    private void schedule(long delayMillis) {
+        try {
+            next = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ScheduledTask.this.run();
+                }
+            }, Math.max(delayMillis, 0), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            log.debug("Scheduled task {} is not scheduled, the executor is shut down", name);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs at most one computation at a time. Callers arriving while it is in progress, or shortly
+ * after it completed, share its result instead of running it again.
+ */
+public class SingleFlight<T> {
+    private final long windowMillis;
+    private final AtomicReference<FutureTask<T>> inFlight;
+    private final AtomicLong coalesced;
+
+    private volatile Completed<T> completed;
+
+    public SingleFlight(long windowMillis) {
+        this.windowMillis = windowMillis;
+        this.inFlight = new AtomicReference<>();
+        this.coalesced = new AtomicLong();
+    }
+
+    public T execute(Callable<T> callable) throws Exception {
+        while (true) {
+            Completed<T> last = completed;
+            if (last != null && System.currentTimeMillis() - last.timestamp <= windowMillis) {
+                coalesced.incrementAndGet();
+                return last.value;
+            }
+
+            FutureTask<T> task = inFlight.get();
+            if (task != null) {
+                coalesced.incrementAndGet();
+                return unwrap(task);
+            }
+
+            task = new FutureTask<>(callable);
+            if (inFlight.compareAndSet(null, task)) {
+                try {
+                    task.run();
+                    T value = unwrap(task);
+                    completed = new Completed<>(value, System.currentTimeMillis());
+                    return value;
+                } finally {
+                    inFlight.compareAndSet(task, null);
+                }
+            }
+            // lost the race to start a flight, join the winner on the next pass
+        }
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private T unwrap(FutureTask<T> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ex;
+        }
+    }
+
+    private static final class Completed<T> {
+        private final T value;
+        private final long timestamp;
+
+        private Completed(T value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed number of the slowest requests seen within a recent period. Slots are replaced with
+ * compare-and-set, so recording never blocks, and the memory used does not depend on the traffic.
+ * Requests faster than every tracked one are turned away by a single volatile read.
+ */
+public class SlowRequestTracker {
+    private static final int MAX_URI_LENGTH = 256;
+
+    private final AtomicReferenceArray<SlowRequest> slots;
+    private final long maxAgeMillis;
+
+    private volatile Threshold threshold;
+
+    public SlowRequestTracker(int capacity, long maxAgeMillis) {
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.maxAgeMillis = maxAgeMillis;
+        this.threshold = new Threshold(0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Tells whether a request of this duration may enter the tracker, before its details are read.
+     */
+    public boolean isCandidate(long durationNanos, long now) {
+        Threshold current = threshold;
+        return durationNanos > current.durationNanos || now > current.validUntil;
+    }
+
+    public void offer(String path, String uri, String user, long durationNanos, long now) {
+        SlowRequest request = null;
+        while (true) {
+            int victim = -1;
+            SlowRequest victimRequest = null;
+            for (int i = 0; i < slots.length(); i++) {
+                SlowRequest slot = slots.get(i);
+                if (slot == null || now - slot.timestamp > maxAgeMillis) {
+                    victim = i;
+                    victimRequest = slot;
+                    break;
+                }
+                if (victimRequest == null || slot.durationNanos < victimRequest.durationNanos) {
+                    victim = i;
+                    victimRequest = slot;
+                }
+            }
+            if (victimRequest != null && now - victimRequest.timestamp <= maxAgeMillis && victimRequest.durationNanos >= durationNanos) {
+                break;
+            }
+            if (request == null) {
+                String trimmedUri = uri != null && uri.length() > MAX_URI_LENGTH ? uri.substring(0, MAX_URI_LENGTH) : uri;
+                request = new SlowRequest(path, trimmedUri, user, durationNanos, now);
+            }
+            if (slots.compareAndSet(victim, victimRequest, request)) {
+                break;
+            }
+        }
+        updateThreshold(now);
+    }
+
+    /**
+     * Returns the tracked requests, slowest first.
+     */
+    public List<SlowRequest> getSlowRequests() {
+        long now = System.currentTimeMillis();
+        List<SlowRequest> result = new ArrayList<>(slots.length());
+        for (int i = 0; i < slots.length(); i++) {
+            SlowRequest slot = slots.get(i);
+            if (slot != null && now - slot.timestamp <= maxAgeMillis) {
+                result.add(slot);
+            }
+        }
+        Collections.sort(result, new Comparator<SlowRequest>() {
+            @Override
+            public int compare(SlowRequest o1, SlowRequest o2) {
+                return Long.compare(o2.durationNanos, o1.durationNanos);
+            }
+        });
+        return result;
+    }
+
+    private void updateThreshold(long now) {
+        long minDuration = Long.MAX_VALUE;
+        long validUntil = Long.MAX_VALUE;
+        for (int i = 0; i < slots.length(); i++) {
+            SlowRequest slot = slots.get(i);
+            if (slot == null || now - slot.timestamp > maxAgeMillis) {
+                // a free slot takes any request
+                threshold = new Threshold(0, Long.MAX_VALUE);
+                return;
+            }
+            minDuration = Math.min(minDuration, slot.durationNanos);
+            validUntil = Math.min(validUntil, slot.timestamp + maxAgeMillis);
+        }
+        threshold = new Threshold(minDuration, validUntil);
+    }
+
+    private static final class Threshold {
+        private final long durationNanos;
+        private final long validUntil;
+
+        private Threshold(long durationNanos, long validUntil) {
+            this.durationNanos = durationNanos;
+            this.validUntil = validUntil;
+        }
+    }
+
+    public static final class SlowRequest {
+        private final String path;
+        private final String uri;
+        private final String user;
+        private final long durationNanos;
+        private final long timestamp;
+
+        private SlowRequest(String path, String uri, String user, long durationNanos, long timestamp) {
+            this.path = path;
+            this.uri = uri;
+            this.user = user;
+            this.durationNanos = durationNanos;
+            this.timestamp = timestamp;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Number of current pages and blog posts and the size of attachments of one space.
+ */
+public final class SpaceUsage {
+    /**
+     * Key of the usage summing all spaces not kept by {@link #rollUp}. Space keys are upper case or
+     * start with a tilde, so it does not clash with a real space.
+     */
+    public static final String OTHER = "other";
+
+    private static final Comparator<SpaceUsage> BY_ATTACHMENT_SIZE = new Comparator<SpaceUsage>() {
+        @Override
+        public int compare(SpaceUsage o1, SpaceUsage o2) {
+            return Long.compare(o2.attachmentSize, o1.attachmentSize);
+        }
+    };
+
+    private static final Comparator<SpaceUsage> BY_CONTENT = new Comparator<SpaceUsage>() {
+        @Override
+        public int compare(SpaceUsage o1, SpaceUsage o2) {
+            return Long.compare((long) o2.pages + o2.blogPosts, (long) o1.pages + o1.blogPosts);
+        }
+    };
+
+    private final String spaceKey;
+    private final int pages;
+    private final int blogPosts;
+    private final long attachmentSize;
+
+    public SpaceUsage(String spaceKey, int pages, int blogPosts, long attachmentSize) {
+        this.spaceKey = spaceKey;
+        this.pages = pages;
+        this.blogPosts = blogPosts;
+        this.attachmentSize = attachmentSize;
+    }
+
+    public String getSpaceKey() {
+        return spaceKey;
+    }
+
+    public int getPages() {
+        return pages;
+    }
+
+    public int getBlogPosts() {
+        return blogPosts;
+    }
+
+    public long getAttachmentSize() {
+        return attachmentSize;
+    }
+
+    /**
+     * Keeps the spaces among the largest by attachment size or among the largest by pages and blog
+     * posts, at most twice the limit, and sums up the rest into one usage keyed {@link #OTHER}. Once
+     * there are more spaces than the limit the other usage is always present, even when empty.
+     */
+    public static List<SpaceUsage> rollUp(List<SpaceUsage> spaces, int limit) {
+        if (spaces.size() <= limit) {
+            return Collections.unmodifiableList(new ArrayList<>(spaces));
+        }
+
+        List<SpaceUsage> sorted = new ArrayList<>(spaces);
+        Set<SpaceUsage> kept = new LinkedHashSet<>();
+        Collections.sort(sorted, BY_ATTACHMENT_SIZE);
+        kept.addAll(sorted.subList(0, limit));
+        Collections.sort(sorted, BY_CONTENT);
+        kept.addAll(sorted.subList(0, limit));
+
+        int otherPages = 0;
+        int otherBlogPosts = 0;
+        long otherAttachmentSize = 0;
+        for (SpaceUsage space : spaces) {
+            if (!kept.contains(space)) {
+                otherPages += space.pages;
+                otherBlogPosts += space.blogPosts;
+                otherAttachmentSize += space.attachmentSize;
+            }
+        }
+
+        List<SpaceUsage> result = new ArrayList<>(kept);
+        result.add(new SpaceUsage(OTHER, otherPages, otherBlogPosts, otherAttachmentSize));
+        return Collections.unmodifiableList(result);
+    }
+}
@@ -0,0 +1,127 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.SimpleCollector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations for hot paths, with the default buckets of
+ * {@link io.prometheus.client.Histogram}. Observations are recorded in nanoseconds, so the bucket
+ * is found by comparing longs. Each child spreads its counters over stripes selected by thread, so
+ * that concurrent observations rarely write the same cache line. The exposition is the one of
+ * {@link io.prometheus.client.Histogram}.
+ */
+public class StripedHistogram extends SimpleCollector<StripedHistogram.Child> implements Collector.Describable {
+    private static final double[] BUCKETS = {.005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10};
+    private static final int FINITE_BUCKETS = BUCKETS.length;
+    private static final double NANOSECONDS_PER_SECOND = 1E9;
+    private static final int MAX_STRIPES = 16;
+
+    /**
+     * Longs per stripe: the finite buckets, +Inf and the sum, padded to keep stripes on own cache lines.
+     */
+    private static final int STRIDE = 32;
+    private static final int INF_BUCKET = FINITE_BUCKETS;
+    private static final int SUM = FINITE_BUCKETS + 1;
+
+    private static final long[] BUCKET_NANOS;
+    private static final String[] BUCKET_LABELS;
+
+    static {
+        BUCKET_NANOS = new long[FINITE_BUCKETS];
+        BUCKET_LABELS = new String[FINITE_BUCKETS + 1];
+        for (int i = 0; i < FINITE_BUCKETS; i++) {
+            BUCKET_NANOS[i] = Math.round(BUCKETS[i] * NANOSECONDS_PER_SECOND);
+            BUCKET_LABELS[i] = doubleToGoString(BUCKETS[i]);
+        }
+        BUCKET_LABELS[INF_BUCKET] = doubleToGoString(Double.POSITIVE_INFINITY);
+    }
+
+    private final int stripeMask;
+
+    private StripedHistogram(Builder builder) {
+        super(builder);
+        int stripes = Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES) * 2 - 1);
+        this.stripeMask = stripes - 1;
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    @Override
+    protected Child newChild() {
+        return new Child(stripeMask + 1);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+        for (Map.Entry<List<String>, Child> entry : children.entrySet()) {
+            long[] values = entry.getValue().snapshot();
+            List<String> bucketLabelNames = new ArrayList<>(labelNames);
+            bucketLabelNames.add("le");
+            long count = 0;
+            for (int i = 0; i <= INF_BUCKET; i++) {
+                count += values[i];
+                List<String> bucketLabelValues = new ArrayList<>(entry.getKey());
+                bucketLabelValues.add(BUCKET_LABELS[i]);
+                samples.add(new MetricFamilySamples.Sample(fullname + "_bucket", bucketLabelNames, bucketLabelValues, count));
+            }
+            samples.add(new MetricFamilySamples.Sample(fullname + "_count", labelNames, entry.getKey(), count));
+            samples.add(new MetricFamilySamples.Sample(fullname + "_sum", labelNames, entry.getKey(), values[SUM] / NANOSECONDS_PER_SECOND));
+        }
+        return familySamplesList(Type.HISTOGRAM, samples);
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+        return Collections.singletonList(new MetricFamilySamples(fullname, Type.HISTOGRAM, help, Collections.<MetricFamilySamples.Sample>emptyList()));
+    }
+
+    static int bucketIndex(long nanos) {
+        int index = 0;
+        while (index < FINITE_BUCKETS && nanos > BUCKET_NANOS[index]) {
+            index++;
+        }
+        return index;
+    }
+
+    public static class Builder extends SimpleCollector.Builder<Builder, StripedHistogram> {
+        @Override
+        public StripedHistogram create() {
+            return new StripedHistogram(this);
+        }
+    }
+
+    public static class Child {
+        private final int stripeMask;
+        private final AtomicLongArray cells;
+
+        private Child(int stripes) {
+            this.stripeMask = stripes - 1;
+            this.cells = new AtomicLongArray(stripes * STRIDE);
+        }
+
+        public void observeNanos(long nanos) {
+            int base = ((int) Thread.currentThread().getId() & stripeMask) * STRIDE;
+            cells.incrementAndGet(base + bucketIndex(nanos));
+            cells.addAndGet(base + SUM, Math.max(nanos, 0));
+        }
+
+        private long[] snapshot() {
+            long[] values = new long[SUM + 1];
+            for (int base = 0; base < cells.length(); base += STRIDE) {
+                for (int i = 0; i <= SUM; i++) {
+                    values[i] += cells.get(base + i);
+                }
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Collector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Streaming encoder of the text format 0.0.4, byte compatible with
+ * {@link io.prometheus.client.exporter.common.TextFormat#write004}.
+ * Metric names, family headers and escaped label values are encoded once and reused, numbers are
+ * formatted straight into a pooled buffer which is flushed to the target stream when full.
+ */
+public class TextEncoder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 16384;
+    private static final int BUFFER_POOL_SIZE = 4;
+    private static final int MAX_CACHED_VALUES = 10000;
+
+    /**
+     * Double.toString switches to the scientific notation from this value on.
+     */
+    private static final double MAX_PLAIN_INTEGRAL = 1e7;
+
+    private static final byte[] PLUS_INF = "+Inf".getBytes(UTF_8);
+    private static final byte[] MINUS_INF = "-Inf".getBytes(UTF_8);
+    private static final byte[] NAN = "NaN".getBytes(UTF_8);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(UTF_8);
+
+    private final ConcurrentMap<String, Header> headers;
+    private final ConcurrentMap<String, byte[]> names;
+    private final ConcurrentMap<String, byte[]> labelValues;
+    private final BlockingQueue<Buffer> buffers;
+
+    public TextEncoder() {
+        this.headers = new ConcurrentHashMap<>();
+        this.names = new ConcurrentHashMap<>();
+        this.labelValues = new ConcurrentHashMap<>();
+        this.buffers = new ArrayBlockingQueue<>(BUFFER_POOL_SIZE);
+    }
+
+    public void write(OutputStream outputStream, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+        Buffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new Buffer();
+        }
+        buffer.out = outputStream;
+        try {
+            while (mfs.hasMoreElements()) {
+                Collector.MetricFamilySamples metricFamilySamples = mfs.nextElement();
+                buffer.write(header(metricFamilySamples));
+                for (Collector.MetricFamilySamples.Sample sample : metricFamilySamples.samples) {
+                    writeSample(buffer, sample);
+                }
+            }
+            buffer.flush();
+        } finally {
+            buffer.out = null;
+            buffer.count = 0;
+            buffers.offer(buffer);
+        }
+    }
+
+    private void writeSample(Buffer buffer, Collector.MetricFamilySamples.Sample sample) throws IOException {
+        buffer.write(name(sample.name));
+        List<String> sampleLabelNames = sample.labelNames;
+        if (!sampleLabelNames.isEmpty()) {
+            buffer.write('{');
+            for (int i = 0; i < sampleLabelNames.size(); i++) {
+                buffer.write(name(sampleLabelNames.get(i)));
+                buffer.write('=');
+                buffer.write('"');
+                buffer.write(labelValue(sample.labelValues.get(i)));
+                buffer.write('"');
+                buffer.write(',');
+            }
+            buffer.write('}');
+        }
+        buffer.write(' ');
+        writeDouble(buffer, sample.value);
+        if (sample.timestampMs != null) {
+            buffer.write(' ');
+            writeLong(buffer, sample.timestampMs);
+        }
+        buffer.write('\n');
+    }
+
+    private byte[] header(Collector.MetricFamilySamples metricFamilySamples) {
+        Header header = headers.get(metricFamilySamples.name);
+        if (header == null || !header.matches(metricFamilySamples)) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("# HELP ").append(metricFamilySamples.name).append(' ');
+            for (int i = 0; i < metricFamilySamples.help.length(); i++) {
+                char c = metricFamilySamples.help.charAt(i);
+                if (c == '\\') {
+                    sb.append("\\\\");
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('\n');
+            sb.append("# TYPE ").append(metricFamilySamples.name).append(' ').append(typeString(metricFamilySamples.type)).append('\n');
+            header = new Header(metricFamilySamples.help, metricFamilySamples.type, sb.toString().getBytes(UTF_8));
+            headers.put(metricFamilySamples.name, header);
+        }
+        return header.bytes;
+    }
+
+    private byte[] name(String name) {
+        byte[] bytes = names.get(name);
+        if (bytes == null) {
+            bytes = name.getBytes(UTF_8);
+            names.put(name, bytes);
+        }
+        return bytes;
+    }
+
+    private byte[] labelValue(String value) {
+        byte[] bytes = labelValues.get(value);
+        if (bytes == null) {
+            StringBuilder sb = new StringBuilder(value.length() + 8);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\') {
+                    sb.append("\\\\");
+                } else if (c == '\"') {
+                    sb.append("\\\"");
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            bytes = sb.toString().getBytes(UTF_8);
+            if (labelValues.size() >= MAX_CACHED_VALUES) {
+                // label values follow the series, so start over rather than grow with cardinality
+                labelValues.clear();
+            }
+            labelValues.put(value, bytes);
+        }
+        return bytes;
+    }
+
+    private static void writeDouble(Buffer buffer, double value) throws IOException {
+        if (value == Double.POSITIVE_INFINITY) {
+            buffer.write(PLUS_INF);
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            buffer.write(MINUS_INF);
+        } else if (Double.isNaN(value)) {
+            buffer.write(NAN);
+        } else if (value == Math.rint(value) && Math.abs(value) < MAX_PLAIN_INTEGRAL
+                && (value != 0 || Double.doubleToRawLongBits(value) == 0)) {
+            // counters and most gauges hold integral values, write them without Double.toString
+            writeLong(buffer, (long) value);
+            buffer.write('.');
+            buffer.write('0');
+        } else {
+            buffer.writeAscii(Double.toString(value));
+        }
+    }
+
+    private static void writeLong(Buffer buffer, long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            buffer.write(MIN_LONG);
+            return;
+        }
+        if (value < 0) {
+            buffer.write('-');
+            value = -value;
+        }
+        byte[] digits = buffer.digits;
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.write(digits, pos, digits.length - pos);
+    }
+
+    private static String typeString(Collector.Type type) {
+        switch (type) {
+            case GAUGE:
+                return "gauge";
+            case COUNTER:
+                return "counter";
+            case SUMMARY:
+                return "summary";
+            case HISTOGRAM:
+                return "histogram";
+            default:
+                return "untyped";
+        }
+    }
+
+    private static final class Header {
+        private final String help;
+        private final Collector.Type type;
+        private final byte[] bytes;
+
+        private Header(String help, Collector.Type type, byte[] bytes) {
+            this.help = help;
+            this.type = type;
+            this.bytes = bytes;
+        }
+
+        private boolean matches(Collector.MetricFamilySamples metricFamilySamples) {
+            return type == metricFamilySamples.type && help.equals(metricFamilySamples.help);
+        }
+    }
+
+    private static final class Buffer {
+        private final byte[] bytes = new byte[BUFFER_SIZE];
+        private final byte[] digits = new byte[20];
+        private int count;
+        private OutputStream out;
+
+        private void write(int b) throws IOException {
+            if (count == bytes.length) {
+                flush();
+            }
+            bytes[count++] = (byte) b;
+        }
+
+        private void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            if (len > bytes.length - count) {
+                flush();
+                if (len > bytes.length) {
+                    out.write(b, off, len);
+                    return;
+                }
+            }
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+
+        private void writeAscii(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                write(s.charAt(i));
+            }
+        }
+
+        private void flush() throws IOException {
+            if (count > 0) {
+                out.write(bytes, 0, count);
+                count = 0;
+            }
+        }
+    }
+}
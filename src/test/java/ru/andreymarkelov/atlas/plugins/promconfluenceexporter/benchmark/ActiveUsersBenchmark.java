@@ -0,0 +1,138 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Active user counting against an embedded H2 database seeded with a login info table: the
+ * aggregate query of ScheduledMetricEvaluatorImpl against one lookup per user, which is what
+ * LoginManager.getLoginInfo does for each user of the fallback. The per-user lookup reuses one
+ * prepared statement, so it leaves out the hibernate and user directory costs of the real loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActiveUsersBenchmark {
+    private static final String ACTIVE_USERS_SQL = "SELECT count(CASE WHEN SUCCESSDATE >= ? THEN 1 END), count(CASE WHEN SUCCESSDATE >= ? THEN 1 END) FROM LOGININFO WHERE SUCCESSDATE >= ?";
+    private static final String LOGIN_INFO_SQL = "SELECT SUCCESSDATE FROM LOGININFO WHERE USERNAME = ?";
+
+    @Param({"60000"})
+    public int users;
+
+    private Connection connection;
+    private long oneHourAgo;
+    private long today;
+
+    @Setup
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:logininfo;DB_CLOSE_DELAY=-1");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS LOGININFO");
+            statement.execute("CREATE TABLE LOGININFO (ID BIGINT PRIMARY KEY, USERNAME VARCHAR(255) NOT NULL UNIQUE,"
+                    + " CURFAILED INT, TOTALFAILED INT, SUCCESSDATE TIMESTAMP, PREVSUCCESSDATE TIMESTAMP, FAILEDDATE TIMESTAMP)");
+        }
+
+        long now = System.currentTimeMillis();
+        oneHourAgo = now - TimeUnit.HOURS.toMillis(1);
+        today = now - TimeUnit.HOURS.toMillis(12);
+        Random random = new Random(42);
+        connection.setAutoCommit(false);
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO LOGININFO (ID, USERNAME, CURFAILED, TOTALFAILED, SUCCESSDATE) VALUES (?, ?, 0, 0, ?)")) {
+            for (int i = 0; i < users; i++) {
+                statement.setLong(1, i);
+                statement.setString(2, userKey(i));
+                // one in ten users never logged in, the others within the last 90 days
+                statement.setTimestamp(3, i % 10 == 0 ? null : new Timestamp(now - (long) (random.nextDouble() * TimeUnit.DAYS.toMillis(90))));
+                statement.addBatch();
+                if (i % 1000 == 999) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE LOGININFO");
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    public long aggregateQuery() throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(ACTIVE_USERS_SQL)) {
+            statement.setTimestamp(1, new Timestamp(oneHourAgo));
+            statement.setTimestamp(2, new Timestamp(today));
+            statement.setTimestamp(3, new Timestamp(Math.min(oneHourAgo, today)));
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return ((long) rs.getInt(1) << 32) + rs.getInt(2);
+            }
+        }
+    }
+
+    @Benchmark
+    public long perUserLookups() throws SQLException {
+        int oneHourAgoActiveUsers = 0;
+        int todayActiveUsers = 0;
+        try (PreparedStatement statement = connection.prepareStatement(LOGIN_INFO_SQL)) {
+            for (int i = 0; i < users; i++) {
+                statement.setString(1, userKey(i));
+                try (ResultSet rs = statement.executeQuery()) {
+                    Timestamp successDate = rs.next() ? rs.getTimestamp(1) : null;
+                    if (successDate != null) {
+                        if (successDate.getTime() >= oneHourAgo) {
+                            oneHourAgoActiveUsers++;
+                        }
+                        if (successDate.getTime() >= today) {
+                            todayActiveUsers++;
+                        }
+                    }
+                }
+            }
+        }
+        return ((long) oneHourAgoActiveUsers << 32) + todayActiveUsers;
+    }
+
+    private static String userKey(int i) {
+        return "8a7f808a5c1e2d3b015c1e2d" + String.format("%08x", i);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ActiveUsersBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,85 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.benchmark;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.CardinalityGuard;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.StripedHistogram;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one request duration from 200 threads over 20 paths: the simpleclient
+ * {@link Histogram} looked up by label as before, the same behind the cardinality guard, and the
+ * {@link StripedHistogram} child kept with its admission as on the request path now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(200)
+@Fork(1)
+public class RequestDurationBenchmark {
+    private static final int PATHS = 20;
+
+    private final String[] paths = new String[PATHS];
+    private final Histogram histogram = Histogram.build().name("benchmark_histogram").help("Histogram").labelNames("path").create();
+    private final Histogram guardedHistogram = Histogram.build().name("benchmark_guarded_histogram").help("Histogram").labelNames("path").create();
+    private final StripedHistogram stripedHistogram = StripedHistogram.build().name("benchmark_striped_histogram").help("Histogram").labelNames("path").create();
+    private final Counter rejected = Counter.build().name("benchmark_rejected").help("Rejected").labelNames("family").create();
+    private final CardinalityGuard guard = new CardinalityGuard("benchmark_guarded_histogram", 1000, rejected, guardedHistogram);
+    private final CardinalityGuard.Admission[] admissions = new CardinalityGuard.Admission[PATHS];
+    private final StripedHistogram.Child[] stripedChildren = new StripedHistogram.Child[PATHS];
+
+    @Setup
+    public void setUp() {
+        CardinalityGuard stripedGuard = new CardinalityGuard("benchmark_striped_histogram", 1000, rejected, stripedHistogram);
+        for (int i = 0; i < PATHS; i++) {
+            paths[i] = "/rest/api/content/{id}/" + i;
+            admissions[i] = stripedGuard.admit(paths[i]);
+            stripedChildren[i] = stripedHistogram.labels(paths[i]);
+        }
+    }
+
+    @Benchmark
+    public void histogram() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        histogram.labels(paths[random.nextInt(PATHS)]).observe(random.nextInt(1000000000) / 1E9);
+    }
+
+    @Benchmark
+    public void guardedHistogram() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        guardedHistogram.labels(guard.labels(paths[random.nextInt(PATHS)])).observe(random.nextInt(1000000000) / 1E9);
+    }
+
+    @Benchmark
+    public void stripedHistogram() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int path = random.nextInt(PATHS);
+        if (admissions[path].use()) {
+            stripedChildren[path].observeNanos(random.nextInt(1000000000));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RequestDurationBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
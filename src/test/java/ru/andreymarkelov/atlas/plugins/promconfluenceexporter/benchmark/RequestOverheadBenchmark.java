@@ -0,0 +1,172 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.benchmark;
+
+import com.atlassian.confluence.cluster.ClusterManager;
+import com.atlassian.confluence.license.LicenseService;
+import com.atlassian.core.task.MultiQueueTaskManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.ActiveUserTracker;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.JmxMetricEvaluatorImpl;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.MetricCollectorImpl;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.ScheduledMetricEvaluator;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager.ScrapingSettingsManager;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.servlet.AllEndpointFilter;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request overhead of {@link AllEndpointFilter}: a request writing its body straight to the
+ * response against the same request passing the filter, which counts the body through the
+ * response wrapper and records the route, method, status class and size with every request timed.
+ * The gc profiler reports the bytes allocated per request as gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(4)
+@Fork(1)
+public class RequestOverheadBenchmark {
+    @Param({"1024", "65536"})
+    public int bodySize;
+
+    private AllEndpointFilter filter;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private FilterChain chain;
+
+    @Setup
+    public void setUp() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("getRequestSamplingFactor", 1);
+        settings.put("getMaxSeriesPerFamily", 1000);
+        MetricCollectorImpl metricCollector = new MetricCollectorImpl(
+                fake(ClusterManager.class, Collections.<String, Object>emptyMap()),
+                fake(LicenseService.class, Collections.<String, Object>emptyMap()),
+                fake(ScheduledMetricEvaluator.class, Collections.<String, Object>emptyMap()),
+                fake(MultiQueueTaskManager.class, Collections.<String, Object>emptyMap()),
+                new JmxMetricEvaluatorImpl(),
+                fake(ScrapingSettingsManager.class, settings),
+                fake(ActiveUserTracker.class, Collections.<String, Object>emptyMap()));
+        filter = new AllEndpointFilter(metricCollector);
+
+        Map<String, Object> requestValues = new HashMap<>();
+        requestValues.put("getRequestURI", "/confluence/rest/api/content/123");
+        requestValues.put("getContextPath", "/confluence");
+        requestValues.put("getMethod", "GET");
+        requestValues.put("getDispatcherType", DispatcherType.REQUEST);
+        request = fake(HttpServletRequest.class, requestValues);
+
+        Map<String, Object> responseValues = new HashMap<>();
+        responseValues.put("getOutputStream", new DiscardingServletOutputStream());
+        responseValues.put("getStatus", 200);
+        response = fake(HttpServletResponse.class, responseValues);
+
+        final byte[] body = new byte[bodySize];
+        chain = new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                ServletOutputStream outputStream = response.getOutputStream();
+                for (int off = 0; off < body.length; off += 8192) {
+                    outputStream.write(body, off, Math.min(8192, body.length - off));
+                }
+            }
+        };
+    }
+
+    @Benchmark
+    public void unfiltered() throws IOException, ServletException {
+        chain.doFilter(request, response);
+    }
+
+    @Benchmark
+    public void filtered() throws IOException, ServletException {
+        filter.doFilter(request, response, chain);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RequestOverheadBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    /**
+     * Implementation of the interface returning the given values by method name, and null, false
+     * or zero otherwise.
+     */
+    private static <T> T fake(Class<T> type, final Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (values.containsKey(method.getName())) {
+                    return values.get(method.getName());
+                }
+                Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class) {
+                    return false;
+                } else if (returnType == int.class) {
+                    return 0;
+                } else if (returnType == long.class) {
+                    return 0L;
+                } else if (returnType == double.class) {
+                    return 0.0;
+                } else if (returnType == List.class) {
+                    return Collections.emptyList();
+                }
+                return null;
+            }
+        }));
+    }
+
+    private static final class DiscardingServletOutputStream extends ServletOutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+}
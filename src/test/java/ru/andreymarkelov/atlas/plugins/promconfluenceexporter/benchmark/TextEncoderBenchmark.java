@@ -0,0 +1,113 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.benchmark;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.TextEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation of {@link TextEncoder} against {@link TextFormat#write004} for a registry of
+ * about 5000 series. Run with {@code mvn test-compile} and the main method on the test classpath,
+ * the gc profiler reports the bytes allocated per scrape as gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TextEncoderBenchmark {
+    private final TextEncoder textEncoder = new TextEncoder();
+    private final DiscardingOutputStream outputStream = new DiscardingOutputStream();
+
+    private List<Collector.MetricFamilySamples> mfs;
+
+    @Setup
+    public void setUp() {
+        CollectorRegistry registry = new CollectorRegistry(true);
+        for (int family = 0; family < 50; family++) {
+            Counter counter = Counter.build().name("benchmark_counter_" + family).help("Counter " + family).labelNames("user", "ip").register(registry);
+            Gauge gauge = Gauge.build().name("benchmark_gauge_" + family).help("Gauge " + family).labelNames("space").register(registry);
+            for (int series = 0; series < 40; series++) {
+                counter.labels("user" + series, "10.0.0." + series).inc(series * 17);
+                gauge.labels("SPACE" + series).set(series * 1234.5678);
+            }
+        }
+        Histogram histogram = Histogram.build().name("benchmark_request_duration").help("Request duration").labelNames("path").register(registry);
+        for (int path = 0; path < 50; path++) {
+            for (int i = 0; i < 100; i++) {
+                histogram.labels("/rest/api/content/{id}/" + path).observe(i / 97.0);
+            }
+        }
+        mfs = Collections.list(registry.metricFamilySamples());
+    }
+
+    @Benchmark
+    public long textFormat() throws IOException {
+        Writer writer = new OutputStreamWriter(outputStream, "UTF-8");
+        TextFormat.write004(writer, Collections.enumeration(mfs));
+        writer.flush();
+        return outputStream.reset();
+    }
+
+    @Benchmark
+    public long textEncoder() throws IOException {
+        textEncoder.write(outputStream, Collections.enumeration(mfs));
+        return outputStream.reset();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TextEncoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    /**
+     * Counts and drops the bytes, so the benchmark measures only the encoding.
+     */
+    static final class DiscardingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        long reset() {
+            long result = count;
+            count = 0;
+            return result;
+        }
+    }
+}
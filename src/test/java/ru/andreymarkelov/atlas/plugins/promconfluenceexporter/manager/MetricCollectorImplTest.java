@@ -0,0 +1,133 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
+
+import com.atlassian.confluence.cluster.ClusterManager;
+import com.atlassian.confluence.license.LicenseService;
+import com.atlassian.core.task.MultiQueueTaskManager;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricCollectorImplTest {
+    private static final int CYCLES = 20;
+
+    @Test
+    public void testCreateAndDestroyLeavesNoCollectorsOrThreads() throws InterruptedException {
+        Set<String> defaultFamilies = familyNames(CollectorRegistry.defaultRegistry);
+        Set<Thread> threadsBefore = Thread.getAllStackTraces().keySet();
+
+        for (int i = 0; i < CYCLES; i++) {
+            MetricCollectorImpl metricCollector = newMetricCollector();
+            metricCollector.afterPropertiesSet();
+            CollectorRegistry registry = metricCollector.getRegistry();
+            Set<String> families = familyNames(registry);
+            assertTrue(families.contains("confluence_request_count"));
+            assertTrue(families.contains("jvm_threads_current"));
+
+            metricCollector.destroy();
+            assertEquals(Collections.<String>emptySet(), familyNames(registry));
+        }
+
+        assertEquals(defaultFamilies, familyNames(CollectorRegistry.defaultRegistry));
+        List<Thread> leakedThreads = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!threadsBefore.contains(thread)) {
+                // executors are shut down, their threads end right after the running task
+                thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+                if (thread.isAlive()) {
+                    leakedThreads.add(thread);
+                }
+            }
+        }
+        assertEquals(Collections.<Thread>emptyList(), leakedThreads);
+    }
+
+    @Test
+    public void testDestroyWithoutStart() {
+        MetricCollectorImpl metricCollector = newMetricCollector();
+        metricCollector.destroy();
+        assertFalse(metricCollector.getRegistry().metricFamilySamples().hasMoreElements());
+    }
+
+    private static MetricCollectorImpl newMetricCollector() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("getRequestSamplingFactor", 1);
+        settings.put("getMaxSeriesPerFamily", 100);
+        return new MetricCollectorImpl(
+                fake(ClusterManager.class),
+                fake(LicenseService.class),
+                fake(ScheduledMetricEvaluator.class),
+                fake(MultiQueueTaskManager.class),
+                new JmxMetricEvaluatorImpl(),
+                fake(ScrapingSettingsManager.class, settings),
+                fake(ActiveUserTracker.class));
+    }
+
+    private static Set<String> familyNames(CollectorRegistry registry) {
+        Set<String> result = new HashSet<>();
+        for (Collector.MetricFamilySamples metricFamilySamples : Collections.list(registry.metricFamilySamples())) {
+            result.add(metricFamilySamples.name);
+        }
+        return result;
+    }
+
+    private static <T> T fake(Class<T> type) {
+        return fake(type, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Implementation of the interface returning the given values by method name, and empty values
+     * of the return type otherwise.
+     */
+    private static <T> T fake(final Class<T> type, final Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getDeclaringClass() == Object.class) {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return "Fake " + type.getSimpleName();
+                    }
+                }
+                if (values.containsKey(method.getName())) {
+                    return values.get(method.getName());
+                }
+                Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class) {
+                    return false;
+                } else if (returnType == int.class) {
+                    return 0;
+                } else if (returnType == long.class) {
+                    return 0L;
+                } else if (returnType == double.class) {
+                    return 0.0;
+                } else if (returnType == List.class) {
+                    return Collections.emptyList();
+                } else if (returnType == Set.class) {
+                    return Collections.emptySet();
+                }
+                return null;
+            }
+        }));
+    }
+}
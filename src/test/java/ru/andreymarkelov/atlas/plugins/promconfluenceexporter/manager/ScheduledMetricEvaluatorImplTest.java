@@ -0,0 +1,30 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.manager;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScheduledMetricEvaluatorImplTest {
+    @Test
+    public void testSchemaErrors() {
+        assertTrue(ScheduledMetricEvaluatorImpl.isSchemaError(new SQLSyntaxErrorException("ORA-00942: table or view does not exist", "42000", 942)));
+        assertTrue(ScheduledMetricEvaluatorImpl.isSchemaError(new SQLException("relation \"logininfo\" does not exist", "42P01")));
+        assertTrue(ScheduledMetricEvaluatorImpl.isSchemaError(new SQLException("Table 'confluence.LOGININFO' doesn't exist", "42S02", 1146)));
+        assertTrue(ScheduledMetricEvaluatorImpl.isSchemaError(new SQLFeatureNotSupportedException("CASE is not supported")));
+    }
+
+    @Test
+    public void testOutagesAreNotSchemaErrors() {
+        assertFalse(ScheduledMetricEvaluatorImpl.isSchemaError(new SQLTimeoutException("Query timed out", "57014")));
+        assertFalse(ScheduledMetricEvaluatorImpl.isSchemaError(new SQLTransientConnectionException("Connection refused", "08001")));
+        assertFalse(ScheduledMetricEvaluatorImpl.isSchemaError(new SQLException("deadlock detected", "40P01")));
+        assertFalse(ScheduledMetricEvaluatorImpl.isSchemaError(new SQLException("Pool exhausted")));
+    }
+}
@@ -0,0 +1,83 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.servlet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util.RouteNormalizer.OTHER;
+
+public class AllEndpointFilterTest {
+    private static final String CONTEXT_PATH = "/confluence";
+
+    @Test
+    public void testDisplayRoutes() {
+        assertRoute("/display/{space}", "/display/DOC");
+        assertRoute("/display/{space}", "/display/~admin");
+        assertRoute("/display/{space}/{page}", "/display/DOC/Getting+Started");
+        assertRoute("/display/{space}/{page}", "/display/DOC/%D0%A1%D1%82%D1%80%D0%B0%D0%BD%D0%B8%D1%86%D0%B0");
+        assertRoute("/display/{space}/{year}/{month}/{day}/{post}", "/display/DOC/2019/10/17/Release+notes");
+        assertRoute("/display/*", "/display/DOC/2019/10");
+        assertRoute("/display/*", "/display");
+    }
+
+    @Test
+    public void testActionRoutes() {
+        // request URIs carry no query string, ?pageId=123 is not part of the path
+        assertRoute("/pages/viewpage.action", "/pages/viewpage.action");
+        assertRoute("/pages/viewpage.action", "/pages/viewpage.action;jsessionid=6F1B2E5C3A4D");
+        assertRoute("/pages/editpage.action", "/pages/editpage.action");
+        assertRoute("/pages/*", "/pages/templates2/listpagetemplates.action");
+        assertRoute("/spaces/viewspace.action", "/spaces/viewspace.action");
+        assertRoute("/spaces/*", "/spaces/listattachmentsforspace.action");
+        assertRoute("/dashboard.action", "/dashboard.action");
+        assertRoute("/x/{tinyurl}", "/x/AbCdEf");
+    }
+
+    @Test
+    public void testRestRoutes() {
+        assertRoute("/rest/api/content", "/rest/api/content");
+        assertRoute("/rest/api/content", "/rest/api/content/");
+        assertRoute("/rest/api/content/{id}", "/rest/api/content/123");
+        assertRoute("/rest/api/content/search", "/rest/api/content/search");
+        assertRoute("/rest/api/content/{id}/child", "/rest/api/content/123/child");
+        assertRoute("/rest/api/content/{id}/child/{type}", "/rest/api/content/123/child/attachment");
+        assertRoute("/rest/api/content/{id}/label", "/rest/api/content/123/label");
+        assertRoute("/rest/api/*", "/rest/api/content/123/version/2");
+        assertRoute("/rest/api/space/{key}/content", "/rest/api/space/DOC/content");
+        assertRoute("/rest/api/user/current", "/rest/api/user/current");
+        assertRoute("/rest/*", "/rest/prometheus/1.0/metrics");
+        assertRoute("/rest/*", "/rest/mywork/latest/status/notification/count");
+    }
+
+    @Test
+    public void testDownloadAndResourceRoutes() {
+        assertRoute("/download/attachments/{page}/{file}", "/download/attachments/123/report.pdf");
+        assertRoute("/download/thumbnails/{page}/{file}", "/download/thumbnails/123/image.png");
+        assertRoute("/download/*", "/download/attachments/123");
+        assertRoute("/download/*", "/download/temp/export.zip");
+        assertRoute("/s/*", "/s/en_GB/7901/e1a2b3c4d5/_/download/batch/com.atlassian.auiplugin:ajs/com.atlassian.auiplugin:ajs.js");
+        assertRoute("/s/*", "/s/-ctyc0z/7901/1/_/images/icons/profilepics/default.svg");
+        assertRoute("/images/*", "/images/logo/confluence-logo.png");
+        assertRoute("/plugins/servlet/*", "/plugins/servlet/confluence/placeholder/macro");
+    }
+
+    @Test
+    public void testContextRoot() {
+        assertRoute("/", "");
+        assertRoute("/", "/");
+        assertEquals("/index.action", AllEndpointFilter.ROUTES.normalize("/index.action", 0));
+    }
+
+    @Test
+    public void testUnknownRoutesAreOther() {
+        assertRoute(OTHER, "/unknown.action");
+        assertRoute(OTHER, "/x/");
+        assertRoute(OTHER, "/favicon.ico");
+        assertRoute(OTHER, "/WEB-INF/web.xml");
+        assertRoute(OTHER, "/displaypage");
+        assertEquals(OTHER, AllEndpointFilter.ROUTES.normalize(null, 0));
+    }
+
+    private static void assertRoute(String expected, String path) {
+        assertEquals(path, expected, AllEndpointFilter.ROUTES.normalize(CONTEXT_PATH + path, CONTEXT_PATH.length()));
+    }
+}
@@ -0,0 +1,93 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Summary;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CardinalityGuardTest {
+    private final Counter rejected = Counter.build().name("rejected").help("Rejected").labelNames("family").create();
+    private final Summary durations = Summary.build().name("durations").help("Durations").labelNames("path", "method").create();
+    private final Summary sizes = Summary.build().name("sizes").help("Sizes").labelNames("path", "method").create();
+    private final CardinalityGuard guard = new CardinalityGuard("durations", 2, rejected, durations, sizes);
+
+    @Test
+    public void testAdmitsUpToLimit() {
+        CardinalityGuard.Admission admission = guard.admit("/a", "GET");
+        assertNotNull(admission);
+        assertSame(admission, guard.admit("/a", "GET"));
+        assertNotNull(guard.admit("/b", "GET"));
+        assertNull(guard.admit("/c", "GET"));
+        assertArrayEquals(new String[] {CardinalityGuard.OTHER, CardinalityGuard.OTHER}, guard.labels("/d", "GET"));
+        assertArrayEquals(new String[] {"/a", "GET"}, guard.labels("/a", "GET"));
+        assertEquals(2, guard.size());
+        assertEquals(2.0, rejected.labels("durations").get(), 0);
+    }
+
+    @Test
+    public void testUsedCombinationIsKept() {
+        CardinalityGuard.Admission admission = guard.admit("/a", "GET");
+        durations.labels("/a", "GET").observe(1);
+
+        // the first expiry takes the time of the use, a later one sees it idle
+        assertEquals(0, guard.expire(Long.MAX_VALUE));
+        assertTrue(admission.use());
+        assertEquals(0, guard.expire(Long.MAX_VALUE));
+        assertEquals(1, guard.size());
+    }
+
+    @Test
+    public void testIdleCombinationIsExpiredWithItsSeries() {
+        CardinalityGuard.Admission admission = guard.admit("/a", "GET");
+        durations.labels("/a", "GET").observe(1);
+        sizes.labels("/a", "GET").observe(100);
+        guard.admit("/b", "GET");
+        durations.labels("/b", "GET").observe(1);
+
+        guard.expire(Long.MAX_VALUE);
+        assertTrue(guard.admit("/b", "GET").use());
+        assertEquals(1, guard.expire(Long.MAX_VALUE));
+
+        assertFalse(admission.use());
+        assertEquals(1, guard.size());
+        assertEquals(new HashSet<>(Arrays.asList("/b")), paths(durations));
+        assertTrue(paths(sizes).isEmpty());
+
+        CardinalityGuard.Admission readmitted = guard.admit("/a", "GET");
+        assertNotSame(admission, readmitted);
+        assertTrue(readmitted.use());
+        assertEquals(2, guard.size());
+    }
+
+    @Test
+    public void testExpiryFreesRoomForNewCombinations() {
+        guard.admit("/a", "GET");
+        guard.admit("/b", "GET");
+        assertNull(guard.admit("/c", "GET"));
+
+        guard.expire(Long.MAX_VALUE);
+        assertEquals(2, guard.expire(Long.MAX_VALUE));
+        assertNotNull(guard.admit("/c", "GET"));
+    }
+
+    private static Set<String> paths(Summary summary) {
+        Set<String> result = new HashSet<>();
+        for (Collector.MetricFamilySamples.Sample sample : summary.collect().get(0).samples) {
+            result.add(sample.labelValues.get(0));
+        }
+        return result;
+    }
+}
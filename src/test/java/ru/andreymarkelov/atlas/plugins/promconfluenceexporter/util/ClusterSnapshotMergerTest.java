@@ -0,0 +1,152 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Collector;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ClusterSnapshotMergerTest {
+    @Test
+    public void testMergeOfThreeNodes() throws IOException {
+        List<NodeSnapshot> snapshots = Arrays.asList(
+                snapshot("node-1", 1000, 10, 2, 100, 5),
+                snapshot("node-2", 3000, 20, 3, 300, 6),
+                snapshot("node-3", 2000, 30, 4, 200, 7));
+
+        Map<String, Collector.MetricFamilySamples> merged = byName(ClusterSnapshotMerger.merge(
+                snapshots, Collections.singleton("test_total_pages")));
+
+        // counters are summed per series across the nodes
+        Collector.MetricFamilySamples requests = merged.get("test_requests");
+        assertEquals(Collector.Type.COUNTER, requests.type);
+        assertEquals(60, value(requests, "test_requests", "path", "/a"), 0);
+        assertEquals(9, value(requests, "test_requests", "path", "/b"), 0);
+
+        // histogram buckets, counts and sums are summed, summary quantiles are dropped
+        Collector.MetricFamilySamples duration = merged.get("test_duration");
+        assertEquals(3, value(duration, "test_duration_bucket", "le", "+Inf"), 0);
+        assertEquals(3, value(duration, "test_duration_count"), 0);
+        assertEquals(18, value(duration, "test_duration_sum"), 0);
+        Collector.MetricFamilySamples latency = merged.get("test_latency");
+        assertEquals(3, value(latency, "test_latency_count"), 0);
+        for (Collector.MetricFamilySamples.Sample sample : latency.samples) {
+            assertFalse(sample.labelNames.contains("quantile"));
+        }
+
+        // gauges are kept per node
+        Collector.MetricFamilySamples heap = merged.get("test_heap");
+        assertEquals(3, heap.samples.size());
+        assertEquals(100, value(heap, "test_heap", "area", "heap", ClusterSnapshotMerger.NODE_LABEL, "node-1"), 0);
+        assertEquals(300, value(heap, "test_heap", "area", "heap", ClusterSnapshotMerger.NODE_LABEL, "node-2"), 0);
+        assertEquals(200, value(heap, "test_heap", "area", "heap", ClusterSnapshotMerger.NODE_LABEL, "node-3"), 0);
+
+        // shared values are taken from the freshest node only
+        Collector.MetricFamilySamples totalPages = merged.get("test_total_pages");
+        assertEquals(1, totalPages.samples.size());
+        assertEquals(6, value(totalPages, "test_total_pages"), 0);
+    }
+
+    @Test
+    public void testFamilyOfConflictingTypeIsTakenFromFreshestNode() throws IOException {
+        NodeSnapshot older = roundTrip(new NodeSnapshot("node-1", 1000, Collections.singletonList(family("test_value", Collector.Type.COUNTER,
+                sample("test_value", 5)))));
+        NodeSnapshot newer = roundTrip(new NodeSnapshot("node-2", 2000, Collections.singletonList(family("test_value", Collector.Type.GAUGE,
+                sample("test_value", 7)))));
+
+        Map<String, Collector.MetricFamilySamples> merged = byName(ClusterSnapshotMerger.merge(
+                Arrays.asList(older, newer), Collections.<String>emptySet()));
+
+        Collector.MetricFamilySamples value = merged.get("test_value");
+        assertEquals(Collector.Type.GAUGE, value.type);
+        assertEquals(1, value.samples.size());
+        assertEquals(7, value(value, "test_value", ClusterSnapshotMerger.NODE_LABEL, "node-2"), 0);
+    }
+
+    @Test
+    public void testSingleNode() throws IOException {
+        Map<String, Collector.MetricFamilySamples> merged = byName(ClusterSnapshotMerger.merge(
+                Collections.singletonList(snapshot("node-1", 1000, 10, 2, 100, 5)), Collections.singleton("test_total_pages")));
+
+        assertEquals(10, value(merged.get("test_requests"), "test_requests", "path", "/a"), 0);
+        assertEquals(100, value(merged.get("test_heap"), "test_heap", "area", "heap", ClusterSnapshotMerger.NODE_LABEL, "node-1"), 0);
+        assertNull(valueOrNull(merged.get("test_heap"), "test_heap", "area", "heap"));
+    }
+
+    /**
+     * Fake node snapshot, passed through its byte form like the snapshots of other nodes.
+     */
+    private static NodeSnapshot snapshot(String node, long timestamp, double requestsA, double requestsB, double heap, double totalPages) throws IOException {
+        List<Collector.MetricFamilySamples> samples = new ArrayList<>();
+        samples.add(family("test_requests", Collector.Type.COUNTER,
+                sample("test_requests", requestsA, "path", "/a"),
+                sample("test_requests", requestsB, "path", "/b")));
+        samples.add(family("test_duration", Collector.Type.HISTOGRAM,
+                sample("test_duration_bucket", 1, "le", "0.5"),
+                sample("test_duration_bucket", 1, "le", "+Inf"),
+                sample("test_duration_count", 1),
+                sample("test_duration_sum", totalPages)));
+        samples.add(family("test_latency", Collector.Type.SUMMARY,
+                sample("test_latency", heap, "quantile", "0.99"),
+                sample("test_latency_count", 1),
+                sample("test_latency_sum", 0.5)));
+        samples.add(family("test_heap", Collector.Type.GAUGE,
+                sample("test_heap", heap, "area", "heap")));
+        samples.add(family("test_total_pages", Collector.Type.GAUGE,
+                sample("test_total_pages", totalPages)));
+        return roundTrip(new NodeSnapshot(node, timestamp, samples));
+    }
+
+    private static NodeSnapshot roundTrip(NodeSnapshot snapshot) throws IOException {
+        return NodeSnapshot.fromBytes(snapshot.toBytes());
+    }
+
+    private static Collector.MetricFamilySamples family(String name, Collector.Type type, Collector.MetricFamilySamples.Sample... samples) {
+        return new Collector.MetricFamilySamples(name, type, name, Arrays.asList(samples));
+    }
+
+    private static Collector.MetricFamilySamples.Sample sample(String name, double value, String... labels) {
+        List<String> labelNames = new ArrayList<>();
+        List<String> labelValues = new ArrayList<>();
+        for (int i = 0; i < labels.length; i += 2) {
+            labelNames.add(labels[i]);
+            labelValues.add(labels[i + 1]);
+        }
+        return new Collector.MetricFamilySamples.Sample(name, labelNames, labelValues, value);
+    }
+
+    private static Map<String, Collector.MetricFamilySamples> byName(List<Collector.MetricFamilySamples> families) {
+        Map<String, Collector.MetricFamilySamples> result = new HashMap<>();
+        for (Collector.MetricFamilySamples family : families) {
+            result.put(family.name, family);
+        }
+        return result;
+    }
+
+    private static double value(Collector.MetricFamilySamples family, String name, String... labels) {
+        Double value = valueOrNull(family, name, labels);
+        if (value == null) {
+            throw new AssertionError("No sample " + name + Arrays.toString(labels) + " in " + family);
+        }
+        return value;
+    }
+
+    private static Double valueOrNull(Collector.MetricFamilySamples family, String name, String... labels) {
+        Collector.MetricFamilySamples.Sample expected = sample(name, 0, labels);
+        for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+            if (sample.name.equals(expected.name) && sample.labelNames.equals(expected.labelNames) && sample.labelValues.equals(expected.labelValues)) {
+                return sample.value;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,104 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class CountingResponseWrapperTest {
+    private final RecordingOutputStream outputStream = new RecordingOutputStream();
+    private final StringWriter writer = new StringWriter();
+
+    @Test
+    public void testOutputStreamIsCountedAndPassedThrough() throws IOException {
+        CountingResponseWrapper response = new CountingResponseWrapper(response());
+        ServletOutputStream wrapped = response.getOutputStream();
+        wrapped.write('a');
+        wrapped.write("bcdef".getBytes("UTF-8"), 1, 3);
+        wrapped.print("gh");
+
+        assertSame(wrapped, response.getOutputStream());
+        assertEquals(6, response.getCount());
+        assertArrayEquals("acdegh".getBytes("UTF-8"), outputStream.bytes.toByteArray());
+    }
+
+    @Test
+    public void testWriterIsCountedAndPassedThrough() throws IOException {
+        CountingResponseWrapper response = new CountingResponseWrapper(response());
+        PrintWriter wrapped = response.getWriter();
+        wrapped.write('a');
+        wrapped.write("bcdef", 1, 3);
+        wrapped.print("gh");
+        wrapped.flush();
+
+        assertEquals(6, response.getCount());
+        assertEquals("acdegh", writer.toString());
+    }
+
+    @Test
+    public void testNonBlockingOutputIsDelegated() throws IOException {
+        ServletOutputStream wrapped = new CountingResponseWrapper(response()).getOutputStream();
+        WriteListener writeListener = new WriteListener() {
+            @Override
+            public void onWritePossible() {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+        };
+        wrapped.setWriteListener(writeListener);
+
+        assertFalse(wrapped.isReady());
+        assertSame(writeListener, outputStream.writeListener);
+    }
+
+    private HttpServletResponse response() {
+        return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {HttpServletResponse.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getOutputStream":
+                        return outputStream;
+                    case "getWriter":
+                        return new PrintWriter(writer);
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+
+    private static final class RecordingOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private WriteListener writeListener;
+
+        @Override
+        public void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public boolean isReady() {
+            return writeListener == null;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            this.writeListener = writeListener;
+        }
+    }
+}
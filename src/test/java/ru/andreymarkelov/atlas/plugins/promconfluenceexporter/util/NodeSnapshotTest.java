@@ -0,0 +1,72 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Collector;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class NodeSnapshotTest {
+    @Test
+    public void testRoundTrip() throws IOException {
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            longValue.append(i % 2 == 0 ? 'ж' : 'x');
+        }
+        List<Collector.MetricFamilySamples> samples = Arrays.asList(
+                new Collector.MetricFamilySamples("test_counter", Collector.Type.COUNTER, longValue.toString(), Arrays.asList(
+                        new Collector.MetricFamilySamples.Sample("test_counter", Arrays.asList("path", "user"), Arrays.asList("/display/KEY", longValue.toString()), 3),
+                        new Collector.MetricFamilySamples.Sample("test_counter", Collections.<String>emptyList(), Collections.<String>emptyList(), Double.POSITIVE_INFINITY))),
+                new Collector.MetricFamilySamples("test_gauge", Collector.Type.GAUGE, "", Collections.<Collector.MetricFamilySamples.Sample>emptyList()));
+
+        NodeSnapshot snapshot = NodeSnapshot.fromBytes(new NodeSnapshot("node-1", 1234L, samples).toBytes());
+
+        assertEquals("node-1", snapshot.getNode());
+        assertEquals(1234L, snapshot.getTimestamp());
+        assertEquals(samples, snapshot.getSamples());
+    }
+
+    @Test
+    public void testUnknownTypeIsReportedAsIOException() throws IOException {
+        byte[] bytes = new NodeSnapshot("node-1", 1234L, Collections.singletonList(
+                new Collector.MetricFamilySamples("test_gauge", Collector.Type.GAUGE, "help", Collections.<Collector.MetricFamilySamples.Sample>emptyList()))).toBytes();
+        // turn GAUGE into a type this version does not know
+        String content = new String(bytes, "ISO-8859-1").replace("GAUGE", "GAUGX");
+
+        assertUnreadable(content.getBytes("ISO-8859-1"));
+    }
+
+    @Test
+    public void testTruncatedAndCorruptSnapshotsAreReportedAsIOException() throws IOException {
+        byte[] bytes = new NodeSnapshot("node-1", 1234L, Collections.singletonList(
+                new Collector.MetricFamilySamples("test_gauge", Collector.Type.GAUGE, "help", Collections.singletonList(
+                        new Collector.MetricFamilySamples.Sample("test_gauge", Collections.singletonList("node"), Collections.singletonList("a"), 1))))).toBytes();
+
+        for (int length = 0; length < bytes.length; length++) {
+            assertUnreadable(Arrays.copyOf(bytes, length));
+        }
+        for (int i = 4; i < bytes.length; i++) {
+            byte[] corrupt = bytes.clone();
+            corrupt[i] = (byte) 0xff;
+            try {
+                NodeSnapshot.fromBytes(corrupt);
+            } catch (IOException expected) {
+                // a value byte may be overwritten without breaking the structure, any other failure is not
+            }
+        }
+    }
+
+    private static void assertUnreadable(byte[] bytes) {
+        try {
+            NodeSnapshot.fromBytes(bytes);
+            fail("Snapshot of " + bytes.length + " bytes was read");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+}
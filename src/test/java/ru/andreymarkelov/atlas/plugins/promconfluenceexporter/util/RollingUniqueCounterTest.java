@@ -0,0 +1,52 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class RollingUniqueCounterTest {
+    private final RollingUniqueCounter counter = new RollingUniqueCounter();
+    private final long now = System.currentTimeMillis();
+
+    @Test
+    public void testWindowCoversItsWholeLength() {
+        counter.add("inside hour", now - TimeUnit.MINUTES.toMillis(59));
+        counter.add("inside day", now - TimeUnit.HOURS.toMillis(23) - TimeUnit.MINUTES.toMillis(59));
+        counter.add("inside week", now - TimeUnit.DAYS.toMillis(7) + TimeUnit.MINUTES.toMillis(1));
+        counter.add("inside month", now - TimeUnit.DAYS.toMillis(30) + TimeUnit.MINUTES.toMillis(1));
+
+        assertEquals(1, counter.estimate(RollingUniqueCounter.Window.HOUR, now));
+        assertEquals(2, counter.estimate(RollingUniqueCounter.Window.DAY, now));
+        assertEquals(3, counter.estimate(RollingUniqueCounter.Window.WEEK, now));
+        assertEquals(4, counter.estimate(RollingUniqueCounter.Window.MONTH, now));
+    }
+
+    @Test
+    public void testWindowEndsOneSlotBeforeItsLength() {
+        // the oldest merged slot starts at most one slot length before the window
+        counter.add("before hour", now - TimeUnit.MINUTES.toMillis(66));
+        counter.add("before day", now - TimeUnit.HOURS.toMillis(25) - TimeUnit.MINUTES.toMillis(1));
+        counter.add("before month", now - TimeUnit.DAYS.toMillis(31) - TimeUnit.MINUTES.toMillis(1));
+
+        assertEquals(0, counter.estimate(RollingUniqueCounter.Window.HOUR, now));
+        assertEquals(1, counter.estimate(RollingUniqueCounter.Window.DAY, now));
+        assertEquals(2, counter.estimate(RollingUniqueCounter.Window.MONTH, now));
+    }
+
+    @Test
+    public void testMergeIsIdempotent() throws IOException {
+        counter.add("first", now - TimeUnit.MINUTES.toMillis(1));
+        RollingUniqueCounter other = new RollingUniqueCounter();
+        other.add("first", now - TimeUnit.MINUTES.toMillis(2));
+        other.add("second", now - TimeUnit.MINUTES.toMillis(30));
+
+        counter.merge(other.toBytes());
+        counter.merge(other.toBytes());
+        counter.merge(counter.toBytes());
+
+        assertEquals(2, counter.estimate(RollingUniqueCounter.Window.HOUR, now));
+    }
+}
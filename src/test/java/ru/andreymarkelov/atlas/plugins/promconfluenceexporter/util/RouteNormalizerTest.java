@@ -0,0 +1,64 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RouteNormalizerTest {
+    private final RouteNormalizer routes = RouteNormalizer.compile(
+            "/",
+            "/a/{x}",
+            "/a/b",
+            "/a/{x}/c",
+            "/a/b/d",
+            "/a/*",
+            "/e/{x}/{y}",
+            "/f/*");
+
+    @Test
+    public void testLiteralWinsOverVariable() {
+        assertEquals("/a/b", routes.normalize("/a/b", 0));
+        assertEquals("/a/{x}", routes.normalize("/a/z", 0));
+        assertEquals("/a/b/d", routes.normalize("/a/b/d", 0));
+    }
+
+    @Test
+    public void testVariableMatchedAfterLiteralFails() {
+        assertEquals("/a/{x}/c", routes.normalize("/a/b/c", 0));
+        assertEquals("/a/{x}/c", routes.normalize("/a/z/c", 0));
+    }
+
+    @Test
+    public void testPrefixCatchesUnmatchedRest() {
+        assertEquals("/a/*", routes.normalize("/a", 0));
+        assertEquals("/a/*", routes.normalize("/a/b/e", 0));
+        assertEquals("/a/*", routes.normalize("/a/z/c/d", 0));
+        assertEquals("/f/*", routes.normalize("/f/g/h/i", 0));
+    }
+
+    @Test
+    public void testOffsetSkipsContextPath() {
+        assertEquals("/a/b", routes.normalize("/ctx/a/b", 4));
+        assertEquals("/", routes.normalize("/ctx", 4));
+        assertEquals("/", routes.normalize("/ctx/", 4));
+    }
+
+    @Test
+    public void testSeparatorsAndPathParameters() {
+        assertEquals("/a/b", routes.normalize("//a//b/", 0));
+        assertEquals("/a/b", routes.normalize("/a/b;jsessionid=0123456789ABCDEF", 0));
+        assertEquals("/a/{x}/c", routes.normalize("/a/z;v=1/c", 0));
+        // a variable does not match a segment holding only path parameters
+        assertEquals(RouteNormalizer.OTHER, routes.normalize("/e/x/;p", 0));
+    }
+
+    @Test
+    public void testUnknownPathsAreOther() {
+        assertEquals(RouteNormalizer.OTHER, routes.normalize(null, 0));
+        assertEquals(RouteNormalizer.OTHER, routes.normalize("/b", 0));
+        assertEquals(RouteNormalizer.OTHER, routes.normalize("/ab", 0));
+        assertEquals(RouteNormalizer.OTHER, routes.normalize("/e/x", 0));
+        assertEquals(RouteNormalizer.OTHER, routes.normalize("/e/x/y/z", 0));
+        assertEquals("/e/{x}/{y}", routes.normalize("/e/x/y", 0));
+    }
+}
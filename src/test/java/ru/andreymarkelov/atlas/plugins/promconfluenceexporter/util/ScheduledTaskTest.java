@@ -0,0 +1,173 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScheduledTaskTest {
+    @Test
+    public void testRemainingMillisIsBoundedByTimeout() throws InterruptedException {
+        final AtomicLong remainingMillis = new AtomicLong();
+        final CountDownLatch ran = new CountDownLatch(1);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+        ScheduledTask task = new ScheduledTask("test", TimeUnit.HOURS.toMillis(1), 5000, 0, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                remainingMillis.set(ScheduledTask.remainingMillis());
+                ran.countDown();
+                return true;
+            }
+        });
+        try {
+            task.start(executor, watchdog);
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+        } finally {
+            task.stop();
+            executor.shutdownNow();
+            watchdog.shutdownNow();
+        }
+
+        assertTrue(String.valueOf(remainingMillis.get()), remainingMillis.get() > 0 && remainingMillis.get() <= 5000);
+        assertEquals(-1, ScheduledTask.remainingMillis());
+    }
+
+    @Test
+    public void testRunsDoNotOverlap() throws InterruptedException {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch ran = new CountDownLatch(10);
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+        ScheduledTask task = new ScheduledTask("test", 1, 5000, 0, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws InterruptedException {
+                int current = running.incrementAndGet();
+                maxRunning.set(Math.max(maxRunning.get(), current));
+                Thread.sleep(20);
+                running.decrementAndGet();
+                ran.countDown();
+                return true;
+            }
+        });
+        try {
+            task.start(executor, watchdog, 0);
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+        } finally {
+            task.stop();
+            executor.shutdownNow();
+            watchdog.shutdownNow();
+        }
+
+        assertEquals(1, maxRunning.get());
+        assertTrue(task.getLastSuccess() > 0);
+    }
+
+    @Test
+    public void testTimeoutInterruptsRun() throws InterruptedException {
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final CountDownLatch ran = new CountDownLatch(1);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+        ScheduledTask task = new ScheduledTask("test", TimeUnit.HOURS.toMillis(1), 50, 0, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(5));
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                } finally {
+                    ran.countDown();
+                }
+                return true;
+            }
+        });
+        try {
+            task.start(executor, watchdog, 0);
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+        } finally {
+            task.stop();
+            executor.shutdownNow();
+            watchdog.shutdownNow();
+        }
+
+        assertTrue(interrupted.get());
+        assertEquals(1, task.getTimeouts());
+    }
+
+    @Test
+    public void testRunOutlivingRestartSeesItselfStopped() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch ended = new CountDownLatch(1);
+        final AtomicBoolean stoppedBefore = new AtomicBoolean(true);
+        final AtomicBoolean stoppedAfter = new AtomicBoolean();
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicInteger restartedRuns = new AtomicInteger();
+        final AtomicBoolean restartedStopped = new AtomicBoolean(true);
+        final CountDownLatch restartedRan = new CountDownLatch(1);
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+        ScheduledTask task = new ScheduledTask("test", 1, 5000, 0, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                runs.incrementAndGet();
+                stoppedBefore.set(ScheduledTask.isStopped());
+                started.countDown();
+                // like a JDBC call, the run does not end on the interrupt of the stop
+                while (true) {
+                    try {
+                        release.await();
+                        break;
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                stoppedAfter.set(ScheduledTask.isStopped());
+                ended.countDown();
+                return true;
+            }
+        });
+        ScheduledTask restarted = new ScheduledTask("test", TimeUnit.HOURS.toMillis(1), 5000, 0, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                restartedStopped.set(ScheduledTask.isStopped());
+                restartedRuns.incrementAndGet();
+                restartedRan.countDown();
+                return true;
+            }
+        });
+        try {
+            task.start(executor, watchdog, 0);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            task.stop();
+            restarted.start(executor, watchdog, 0);
+            assertTrue(restartedRan.await(5, TimeUnit.SECONDS));
+            release.countDown();
+            assertTrue(ended.await(5, TimeUnit.SECONDS));
+            // the stopped task is not scheduled again once its run ended
+            Thread.sleep(50);
+        } finally {
+            restarted.stop();
+            executor.shutdownNow();
+            watchdog.shutdownNow();
+        }
+
+        assertFalse(stoppedBefore.get());
+        assertTrue(stoppedAfter.get());
+        assertEquals(1, runs.get());
+        assertFalse(restartedStopped.get());
+        assertEquals(1, restartedRuns.get());
+        assertFalse(ScheduledTask.isStopped());
+    }
+}
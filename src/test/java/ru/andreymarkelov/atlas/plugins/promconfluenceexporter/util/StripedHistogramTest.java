@@ -0,0 +1,54 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Histogram;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class StripedHistogramTest {
+    @Test
+    public void testExpositionMatchesHistogram() {
+        Histogram histogram = Histogram.build().name("test_duration").help("Duration").labelNames("path").create();
+        StripedHistogram stripedHistogram = StripedHistogram.build().name("test_duration").help("Duration").labelNames("path").create();
+
+        long[] observations = {0, 1, 5000000, 5000001, 99999999, 100000000, 750000000, 2500000000L, 10000000000L, 10000000001L, 60000000000L};
+        for (long nanos : observations) {
+            histogram.labels("/display/{space}").observe(nanos / 1E9);
+            stripedHistogram.labels("/display/{space}").observeNanos(nanos);
+        }
+        stripedHistogram.labels("/x/{tinyurl}").observeNanos(1000000);
+        histogram.labels("/x/{tinyurl}").observe(0.001);
+
+        Collector.MetricFamilySamples expected = histogram.collect().get(0);
+        Collector.MetricFamilySamples actual = stripedHistogram.collect().get(0);
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.type, actual.type);
+        assertEquals(expected.samples.size(), actual.samples.size());
+        for (Collector.MetricFamilySamples.Sample sample : expected.samples) {
+            Collector.MetricFamilySamples.Sample match = find(actual.samples, sample);
+            assertEquals(sample.toString(), sample.value, match.value, 1E-9);
+        }
+    }
+
+    @Test
+    public void testBucketBoundsAreInclusive() {
+        assertEquals(0, StripedHistogram.bucketIndex(-1));
+        assertEquals(0, StripedHistogram.bucketIndex(5000000));
+        assertEquals(1, StripedHistogram.bucketIndex(5000001));
+        assertEquals(13, StripedHistogram.bucketIndex(10000000000L));
+        assertEquals(14, StripedHistogram.bucketIndex(10000000001L));
+        assertEquals(14, StripedHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    private static Collector.MetricFamilySamples.Sample find(List<Collector.MetricFamilySamples.Sample> samples, Collector.MetricFamilySamples.Sample expected) {
+        for (Collector.MetricFamilySamples.Sample sample : samples) {
+            if (sample.name.equals(expected.name) && sample.labelNames.equals(expected.labelNames) && sample.labelValues.equals(expected.labelValues)) {
+                return sample;
+            }
+        }
+        throw new AssertionError("Missing " + expected);
+    }
+}
@@ -0,0 +1,116 @@
+package ru.andreymarkelov.atlas.plugins.promconfluenceexporter.util;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.Summary;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TextEncoderTest {
+    private static final double[] VALUES = {
+            0, -0.0, 1, -1, 42, 0.5, -2.25, 1e-9, 9999999, 1e7, -1e7, 12345678.9, 1e300, Double.MIN_VALUE,
+            Long.MAX_VALUE, Long.MIN_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+    private final TextEncoder textEncoder = new TextEncoder();
+
+    @Test
+    public void testRegistryIsEncodedLikeTextFormat() throws IOException {
+        CollectorRegistry registry = new CollectorRegistry(true);
+        Counter.build().name("test_counter").help("Counter with \\ backslash\nand newline").labelNames("path", "method").register(registry)
+                .labels("/display/\"KEY\"/Title\\n", "GET").inc(3);
+        Gauge gauge = Gauge.build().name("test_gauge").help("Gauge").labelNames("value").register(registry);
+        for (double value : VALUES) {
+            gauge.labels(String.valueOf(value)).set(value);
+        }
+        Gauge.build().name("test_unlabelled").help("Unlabelled").register(registry).set(-0.0);
+        Summary summary = Summary.build().name("test_summary").help("Summary").quantile(0.5, 0.05).quantile(0.99, 0.001).register(registry);
+        Histogram histogram = Histogram.build().name("test_histogram").help("Histogram").labelNames("route").register(registry);
+        for (int i = 0; i < 100; i++) {
+            summary.observe(i / 7.0);
+            histogram.labels("путь\n").observe(i / 13.0);
+        }
+        registry.register(new TimestampedCollector());
+
+        assertEncodedLikeTextFormat(registry);
+        // the second pass reads headers, names and label values from the caches
+        assertEncodedLikeTextFormat(registry);
+    }
+
+    @Test
+    public void testValuesAreEncodedLikeTextFormat() throws IOException {
+        List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<>();
+        for (double value : VALUES) {
+            samples.add(new Collector.MetricFamilySamples.Sample("test_value", Collections.<String>emptyList(), Collections.<String>emptyList(), value));
+        }
+        for (long i = -100000; i <= 100000; i += 7) {
+            samples.add(new Collector.MetricFamilySamples.Sample("test_value", Collections.<String>emptyList(), Collections.<String>emptyList(), i / 4.0));
+        }
+        List<Collector.MetricFamilySamples> mfs = Collections.singletonList(
+                new Collector.MetricFamilySamples("test_value", Collector.Type.UNTYPED, "Values", samples));
+
+        assertArrayEquals(textFormat(mfs), textEncoder(mfs));
+    }
+
+    @Test
+    public void testOutputLargerThanBuffer() throws IOException {
+        List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<>();
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            longValue.append((char) ('a' + i % 26));
+        }
+        for (int i = 0; i < 3; i++) {
+            samples.add(new Collector.MetricFamilySamples.Sample("test_long", Collections.singletonList("value"), Collections.singletonList(longValue.toString() + i), i));
+        }
+        List<Collector.MetricFamilySamples> mfs = Collections.singletonList(
+                new Collector.MetricFamilySamples("test_long", Collector.Type.GAUGE, "Long label values", samples));
+
+        byte[] expected = textFormat(mfs);
+        assertEquals(expected.length, textEncoder(mfs).length);
+        assertArrayEquals(expected, textEncoder(mfs));
+    }
+
+    private void assertEncodedLikeTextFormat(CollectorRegistry registry) throws IOException {
+        List<Collector.MetricFamilySamples> mfs = Collections.list(registry.metricFamilySamples());
+        assertArrayEquals(textFormat(mfs), textEncoder(mfs));
+    }
+
+    private static byte[] textFormat(List<Collector.MetricFamilySamples> mfs) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(outputStream, "UTF-8");
+        TextFormat.write004(writer, Collections.enumeration(mfs));
+        writer.flush();
+        return outputStream.toByteArray();
+    }
+
+    private byte[] textEncoder(List<Collector.MetricFamilySamples> mfs) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        textEncoder.write(outputStream, Collections.enumeration(mfs));
+        return outputStream.toByteArray();
+    }
+
+    private static class TimestampedCollector extends Collector {
+        @Override
+        public List<MetricFamilySamples> collect() {
+            List<MetricFamilySamples.Sample> samples = Arrays.asList(
+                    new MetricFamilySamples.Sample("test_timestamped", Collections.singletonList("node"), Collections.singletonList("a"), 1.5, 1571234567890L),
+                    new MetricFamilySamples.Sample("test_timestamped", Collections.singletonList("node"), Collections.singletonList("b"), 2, 0L),
+                    new MetricFamilySamples.Sample("test_timestamped", Collections.singletonList("node"), Collections.singletonList("c"), 3, -1L));
+            return Collections.singletonList(new MetricFamilySamples("test_timestamped", Type.GAUGE, "Timestamped", samples));
+        }
+    }
+}